@@ -0,0 +1,947 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, compiled form of a trained Sudi: every part of speech is interned into a tag id and every
+ * observation into a word id, and all scores live in final primitive arrays and read-only buffers that are never
+ * written after construction. Any number of threads may decode against one CompiledModel without locking.
+ * The vocabulary and emission rows, which grow with the training corpus, are buffers so that a model mapped
+ * from a file can read them in place; the tables sized by the tagset are always copied onto the heap.
+ */
+public final class CompiledModel {
+    // transitions
+    private final String[] tags;                // tag id -> part of speech
+    private final int startId;                  // tag id of start
+    private final double[] transitionMatrix;    // [currId * tags.length + nextId] -> log(p), -infinity if never seen
+
+    // observations, stored in compressed sparse rows: the scores of word id w are at [emissionOffsets[w], emissionOffsets[w+1])
+    private final Vocabulary vocabulary;        // observation -> word id
+    private final IntBuffer emissionOffsets;    // word id -> start of its row in emissionTags and emissionScores
+    private final IntBuffer emissionTags;       // tag ids seen with each word, sorted within a row
+    private final ScorePrecision emissionPrecision;  // which one of the next three holds the scores, the others are null
+    private final DoubleBuffer emissionScores;  // log(p) of the word for the tag id at the same index of emissionTags
+    private final FloatBuffer emissionFloats;   // emissionScores rounded to floats
+    private final ShortBuffer emissionCodes;    // emissionScores quantized, see ScorePrecision.QUANTIZED
+    private final double[] unknownRow;          // tag id -> score of every tag never seen with a word
+    private final SuffixTrie suffixes;          // scores of unknown words by their endings, null if the model has none
+    private final IntBuffer hotWordIds;         // the most frequent words in training, most frequent first
+
+    // derived from the above, not saved
+    private final double[] transitionProbabilities;    // exp of transitionMatrix, for forward-backward
+    private final int[] hotSlots;               // open-addressing table of the hot word ids, at most half full, -1 if empty
+    private final double[][] hotRows;           // slot of a hot word in hotSlots -> dense row of its scores
+
+    // model file header
+    private static final int fileMagic = 0x53554449;   // "SUDI"
+    private static final int fileVersion = 6;   // 2: little-endian with 8 byte aligned arrays, 3: emission precision, 4: suffix trie, 5: hot words, 6: suffix rows at the emission precision
+
+    // hot words: the most frequent words until they cover this fraction of the training tokens, but no more than maxHotWords
+    private static final double hotCoverage = 0.8;
+    private static final int maxHotWords = 1024;
+
+    // step over every tag, vectorized if the jdk.incubator.vector module is present
+    private static final MaxPlusKernel maxPlus = MaxPlusKernel.preferred();
+
+    // one reusable decoding workspace per thread calling dissect
+    private static final ThreadLocal<ViterbiWorkspace> workspaces = ThreadLocal.withInitial(ViterbiWorkspace::new);
+
+    private CompiledModel(String[] tags, int startId, double[] transitionMatrix, Vocabulary vocabulary,
+                          IntBuffer emissionOffsets, IntBuffer emissionTags, ScorePrecision emissionPrecision,
+                          DoubleBuffer emissionScores, FloatBuffer emissionFloats, ShortBuffer emissionCodes,
+                          double[] unknownRow, SuffixTrie suffixes, IntBuffer hotWordIds) {
+        this.tags = tags;
+        this.startId = startId;
+        this.transitionMatrix = transitionMatrix;
+        this.vocabulary = vocabulary;
+        this.emissionOffsets = emissionOffsets;
+        this.emissionTags = emissionTags;
+        this.emissionPrecision = emissionPrecision;
+        this.emissionScores = emissionScores;
+        this.emissionFloats = emissionFloats;
+        this.emissionCodes = emissionCodes;
+        this.unknownRow = unknownRow;
+        this.suffixes = suffixes;
+        this.hotWordIds = hotWordIds;
+
+        transitionProbabilities = new double[transitionMatrix.length];
+        for (int k = 0; k < transitionMatrix.length; k++) transitionProbabilities[k] = Math.exp(transitionMatrix[k]);
+
+        int capacity = 1;
+        while (capacity < 2 * hotWordIds.capacity()) capacity <<= 1;
+        hotSlots = new int[capacity];
+        hotRows = new double[capacity][];
+        Arrays.fill(hotSlots, -1);
+        for (int k = 0; k < hotWordIds.capacity(); k++) {
+            int wordId = hotWordIds.get(k);
+            double[] row = unknownRow.clone();
+            for (int j = emissionOffsets.get(wordId); j < emissionOffsets.get(wordId + 1); j++) {
+                row[emissionTags.get(j)] = emissionScore(j);
+            }
+            int slot = hotSlot(wordId);
+            hotSlots[slot] = wordId;
+            hotRows[slot] = row;
+        }
+    }
+
+    /**
+     * Compiles trained scores into a model, along with a suffix trie for guessing the parts of speech of unknown
+     * words. The maps are only read, and may be changed afterwards without affecting the model.
+     * @param transitionPOSGraph currState -> (nextState -> log(p)), with an entry for every part of speech
+     * @param observationGraph observation -> (part of speech -> log(p))
+     * @param start part of speech every sentence starts from
+     * @param unknownScore score of a part of speech never seen with an observation
+     * @param rareWordCounts observation -> (part of speech -> count) for the rare words of the corpus, see
+     *                       SuffixTrie.maxRareCount, or null for no suffix trie
+     * @param partOfSpeechCount part of speech -> number of times it was seen, sentences for start
+     * @param wordCounts observation -> number of times it was seen, which picks the hot words, or null for none
+     */
+    static CompiledModel compile(Map<String, Map<String, Double>> transitionPOSGraph,
+                                 Map<String, Map<String, Double>> observationGraph, String start, double unknownScore,
+                                 Map<String, Map<String, Double>> rareWordCounts, Map<String, Integer> partOfSpeechCount,
+                                 Map<String, Integer> wordCounts) {
+        // intern every part of speech into an int id
+        String[] tags = transitionPOSGraph.keySet().toArray(new String[0]);
+        int numTags = tags.length;
+
+        Map<String, Integer> tagIds = new HashMap<>();
+        for (int id = 0; id < numTags; id++) {
+            tagIds.put(tags[id], id);
+        }
+
+        // copy the transition scores into a flat matrix
+        // missing transitions are -infinity so they can never be part of the best path
+        double[] transitionMatrix = new double[numTags * numTags];
+        Arrays.fill(transitionMatrix, Double.NEGATIVE_INFINITY);
+        for (String currPOS : transitionPOSGraph.keySet()) {
+            int row = tagIds.get(currPOS) * numTags;
+            for (Map.Entry<String, Double> transition : transitionPOSGraph.get(currPOS).entrySet()) {
+                transitionMatrix[row + tagIds.get(transition.getKey())] = transition.getValue();
+            }
+        }
+
+        // intern every observation into a word id and copy its scores into compressed sparse rows
+        Vocabulary vocabulary = new Vocabulary(observationGraph.keySet());
+
+        double[] unknownRow = new double[numTags];
+        Arrays.fill(unknownRow, unknownScore);
+
+        int numScores = 0;
+        for (Map<String, Double> wordScores : observationGraph.values()) numScores += wordScores.size();
+
+        int[] emissionOffsets = new int[vocabulary.size() + 1];
+        int[] emissionTags = new int[numScores];
+        double[] emissionScores = new double[numScores];
+
+        int end = 0;
+        for (int wordId = 0; wordId < vocabulary.size(); wordId++) {
+            Map<String, Double> wordScores = observationGraph.get(vocabulary.getWord(wordId));
+
+            // sort the row by tag id so it is scattered in memory order
+            int[] rowTags = new int[wordScores.size()];
+            int k = 0;
+            for (String partOfSpeech : wordScores.keySet()) rowTags[k++] = tagIds.get(partOfSpeech);
+            Arrays.sort(rowTags);
+
+            emissionOffsets[wordId] = end;
+            for (int tagId : rowTags) {
+                emissionTags[end] = tagId;
+                emissionScores[end] = wordScores.get(tags[tagId]);
+                end++;
+            }
+            emissionOffsets[wordId + 1] = end;
+        }
+
+        SuffixTrie suffixes = null;
+        if (rareWordCounts != null) {
+            // start is never seen with a word
+            long[] tagCounts = new long[numTags];
+            for (int id = 0; id < numTags; id++) {
+                if (!tags[id].equals(start)) tagCounts[id] = partOfSpeechCount.get(tags[id]);
+            }
+            suffixes = SuffixTrie.build(rareWordCounts, tagIds, tagCounts);
+        }
+        int[] hotWordIds = wordCounts != null ? hotWordIds(vocabulary, wordCounts) : new int[0];
+
+        return new CompiledModel(tags, tagIds.get(start), transitionMatrix, vocabulary, IntBuffer.wrap(emissionOffsets),
+                IntBuffer.wrap(emissionTags), ScorePrecision.DOUBLE, DoubleBuffer.wrap(emissionScores), null, null, unknownRow,
+                suffixes, IntBuffer.wrap(hotWordIds));
+    }
+
+    /**
+     * Chooses the hot words, whose dense rows are kept ready: the most frequent words in training until they cover
+     * hotCoverage of the training tokens, at most maxHotWords of them.
+     * @param wordCounts observation -> number of times it was seen, 0 if missing
+     * @return the word ids of the hot words, most frequent first, ties by word id
+     */
+    private static int[] hotWordIds(Vocabulary vocabulary, Map<String, Integer> wordCounts) {
+        int numWords = vocabulary.size();
+        long[] counts = new long[numWords];
+        long numTokens = 0;
+        for (int wordId = 0; wordId < numWords; wordId++) {
+            counts[wordId] = wordCounts.getOrDefault(vocabulary.getWord(wordId), 0);
+            numTokens += counts[wordId];
+        }
+
+        Integer[] byCount = new Integer[numWords];
+        for (int wordId = 0; wordId < numWords; wordId++) byCount[wordId] = wordId;
+        Arrays.sort(byCount, (a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a]) : Integer.compare(a, b));
+
+        int numHot = 0;
+        long covered = 0;
+        while (numHot < Math.min(numWords, maxHotWords) && covered < hotCoverage * numTokens) covered += counts[byCount[numHot++]];
+
+        int[] hotWordIds = new int[numHot];
+        for (int k = 0; k < numHot; k++) hotWordIds[k] = byCount[k];
+        return hotWordIds;
+    }
+
+    /**
+     * Returns a copy of this model keeping dense rows for only its numHotWords most frequent hot words, sharing
+     * everything else. Fewer hot rows take less memory; decoding gives the same tags either way.
+     */
+    public CompiledModel withHotWords(int numHotWords) {
+        if (numHotWords < 0) throw new IllegalArgumentException("number of hot words must not be negative: " + numHotWords);
+        if (numHotWords >= hotWordIds.capacity()) return this;
+        IntBuffer fewer = hotWordIds.duplicate();
+        fewer.limit(numHotWords);
+        return new CompiledModel(tags, startId, transitionMatrix, vocabulary, emissionOffsets, emissionTags,
+                emissionPrecision, emissionScores, emissionFloats, emissionCodes, unknownRow, suffixes, fewer.slice());
+    }
+
+    /**
+     * @return the number of hot words, whose dense rows of scores are kept ready
+     */
+    public int getNumHotWords() {
+        return hotWordIds.capacity();
+    }
+
+    /**
+     * @return whether word is a hot word
+     */
+    boolean isHot(CharSequence word) {
+        int wordId = vocabulary.lookup(word);
+        return wordId >= 0 && hotSlots[hotSlot(wordId)] == wordId;
+    }
+
+    /**
+     * @return the slot of wordId in hotSlots, or the empty slot it would take if it is not a hot word
+     */
+    private int hotSlot(int wordId) {
+        int mask = hotSlots.length - 1;
+        int slot = (wordId * 0x9E3779B9) & mask;
+        while (hotSlots[slot] != -1 && hotSlots[slot] != wordId) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Returns a copy of this model with its emission scores, and the rows of its suffix trie, stored at the given
+     * precision, sharing everything else.
+     * Lower precisions shrink the emission table, by half for FLOAT and by three quarters for QUANTIZED, and may
+     * change the chosen tags where the best paths score nearly the same. Going back up to a higher precision does
+     * not restore the rounded digits.
+     */
+    public CompiledModel withEmissionPrecision(ScorePrecision precision) {
+        if (precision == emissionPrecision) return this;
+
+        int numScores = emissionTags.capacity();
+        DoubleBuffer scores = null;
+        FloatBuffer floats = null;
+        ShortBuffer codes = null;
+        switch (precision) {
+            case FLOAT:
+                float[] floatArray = new float[numScores];
+                for (int k = 0; k < numScores; k++) floatArray[k] = (float) emissionScore(k);
+                floats = FloatBuffer.wrap(floatArray);
+                break;
+            case QUANTIZED:
+                short[] codeArray = new short[numScores];
+                for (int k = 0; k < numScores; k++) codeArray[k] = ScorePrecision.quantize(emissionScore(k));
+                codes = ShortBuffer.wrap(codeArray);
+                break;
+            default:
+                double[] scoreArray = new double[numScores];
+                for (int k = 0; k < numScores; k++) scoreArray[k] = emissionScore(k);
+                scores = DoubleBuffer.wrap(scoreArray);
+        }
+        return new CompiledModel(tags, startId, transitionMatrix, vocabulary, emissionOffsets, emissionTags,
+                precision, scores, floats, codes, unknownRow, suffixes == null ? null : suffixes.withPrecision(precision),
+                hotWordIds);
+    }
+
+    /**
+     * @return the precision the emission scores are stored at
+     */
+    public ScorePrecision getEmissionPrecision() {
+        return emissionPrecision;
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns a list of parts of speech corresponding to each word.
+     * @param input string to be interpreted
+     * @return ordered list of parts of speech corresponding to each word in input
+     */
+    public String[] dissect(String input) {
+        return dissect(input, DecodeOptions.exact());
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns a list of parts of speech corresponding to each word.
+     * @param input string to be interpreted
+     * @param options how to decode, such as with a beam
+     * @return ordered list of parts of speech corresponding to each word in input
+     */
+    public String[] dissect(String input, DecodeOptions options) {
+        ViterbiWorkspace workspace = workspaces.get();
+        Tokenizer words = workspace.tokenizer.split(input);
+        String[] rPartsOfSpeech = new String[words.size()]; // array of corresponding parts of speech to return
+
+        workspace.ensureTagIdCapacity(words.size());
+        if (decode(words, workspace, workspace.tagIds, options) == Double.NEGATIVE_INFINITY) return rPartsOfSpeech;   // no path through the sentence
+
+        for (int i = 0; i < words.size(); i++) {
+            rPartsOfSpeech[i] = tags[workspace.tagIds[i]];
+        }
+        return rPartsOfSpeech;
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns its k most likely taggings, best first.
+     * The first is the one dissect returns.
+     * @param input string to be interpreted
+     * @param k number of taggings to return, fewer if the sentence has fewer paths through it
+     * @return the taggings with their log probabilities, empty if there is no path through the sentence
+     */
+    public List<TagSequence> dissectKBest(String input, int k) {
+        return dissectKBest(input, k, DecodeOptions.exact());
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns its k most likely taggings, best first.
+     * The first is the one dissect returns with the same options; checkpointing is ignored.
+     * @param input string to be interpreted
+     * @param k number of taggings to return, fewer if the sentence has fewer paths through it
+     * @param options how to decode, such as with a beam, which limits the paths found to those within the beam
+     * @return the taggings with their log probabilities, empty if there is no path through the sentence
+     */
+    public List<TagSequence> dissectKBest(String input, int k, DecodeOptions options) {
+        if (k < 1) throw new IllegalArgumentException("k must be positive: " + k);
+        ViterbiWorkspace workspace = workspaces.get();
+        Tokenizer words = workspace.tokenizer.split(input);
+        if (k > 1) return new KBestLattice(this, words, workspace, options).best(k);
+
+        // the best tagging alone is dissect's, which needs no lattice
+        List<TagSequence> rBest = new ArrayList<>(1);
+        workspace.ensureTagIdCapacity(words.size());
+        double score = decode(words, workspace, workspace.tagIds, options);
+        if (score == Double.NEGATIVE_INFINITY) return rBest;
+
+        String[] partsOfSpeech = new String[words.size()];
+        for (int i = 0; i < words.size(); i++) partsOfSpeech[i] = tags[workspace.tagIds[i]];
+        rBest.add(new TagSequence(partsOfSpeech, score));
+        return rBest;
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns, for each word, the probability of every part of speech
+     * given the whole sentence, summing over all paths (forward-backward) rather than taking the best one
+     * @param input string to be interpreted
+     * @return the posterior distribution of each word, or null if there is no path through the sentence
+     */
+    public Posteriors posteriors(String input) {
+        ViterbiWorkspace workspace = workspaces.get();
+        Tokenizer words = workspace.tokenizer.split(input);
+        double logLikelihood = ForwardBackward.run(this, words, workspace);
+        if (logLikelihood == Double.NEGATIVE_INFINITY) return null;
+        return new Posteriors(tags, words.size(), Arrays.copyOf(workspace.forward, words.size() * tags.length), logLikelihood);
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns, for each word, the part of speech with the highest
+     * posterior probability and that probability, which is how confident the model is in the tag.
+     * The tags are usually, but not always, those dissect returns.
+     * @param input string to be interpreted
+     * @return the most probable part of speech of each word with its probability, or null if there is no path
+     * through the sentence
+     */
+    public TagMarginals dissectWithMarginals(String input) {
+        ViterbiWorkspace workspace = workspaces.get();
+        Tokenizer words = workspace.tokenizer.split(input);
+        if (ForwardBackward.run(this, words, workspace) == Double.NEGATIVE_INFINITY) return null;
+
+        String[] partsOfSpeech = new String[words.size()];
+        double[] marginals = new double[words.size()];
+        double[] posteriors = workspace.forward;
+        int numTags = tags.length;
+        for (int i = 0; i < words.size(); i++) {
+            int bestId = 0;
+            for (int id = 1; id < numTags; id++) {
+                if (posteriors[i * numTags + id] > posteriors[i * numTags + bestId]) bestId = id;
+            }
+            partsOfSpeech[i] = tags[bestId];
+            marginals[i] = posteriors[i * numTags + bestId];
+        }
+        return new TagMarginals(partsOfSpeech, marginals);
+    }
+
+    /**
+     * Finds the most likely tag id for each word, using only the buffers in workspace.
+     * Allocates nothing once workspace has grown to fit the sentence.
+     * @param words sentence to be interpreted
+     * @param workspace scratch buffers, reused across calls by the same thread
+     * @param rTagIds filled with the tag id of each word, must hold at least words.length ids
+     * @return false if there is no path through the sentence, in which case rTagIds is left unchanged
+     */
+    public boolean decode(String[] words, ViterbiWorkspace workspace, int[] rTagIds) {
+        return decode(words, workspace, rTagIds, DecodeOptions.exact());
+    }
+
+    /**
+     * Finds the most likely tag id for each word, using only the buffers in workspace.
+     * Allocates nothing once workspace has grown to fit the sentence.
+     * @param words sentence to be interpreted
+     * @param workspace scratch buffers, reused across calls by the same thread
+     * @param rTagIds filled with the tag id of each word, must hold at least words.length ids
+     * @param options how to decode, such as with a beam
+     * @return false if there is no path through the sentence, in which case rTagIds is left unchanged
+     */
+    public boolean decode(String[] words, ViterbiWorkspace workspace, int[] rTagIds, DecodeOptions options) {
+        return decode(workspace.tokenizer.of(words), workspace, rTagIds, options) != Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * decode, over the words held by a Tokenizer
+     * @return the score of the best path, -infinity if there is none, in which case rTagIds is left unchanged
+     */
+    private double decode(Tokenizer words, ViterbiWorkspace workspace, int[] rTagIds, DecodeOptions options) {
+        if (options.isCheckpointing()) return decodeCheckpointed(words, workspace, rTagIds, options);
+
+        int numTags = tags.length;
+        workspace.ensureTagCapacity(numTags);
+        workspace.ensureBackpointerCapacity(words.size(), numTags);
+
+        double[] currScores = workspace.currScores;     // score for each currState, -infinity if not reachable
+        double[] nextScores = workspace.nextScores;     // score for each nextState
+        int[] backpointers = workspace.backpointers;    // [i * numTags + nextId] -> best currId at observation i-1
+
+        Arrays.fill(currScores, 0, numTags, Double.NEGATIVE_INFINITY);
+        currScores[startId] = 0.0;
+
+        // block to generate most likely part of speech backtrace
+        for (int i = 0; i < words.size(); i++) {    // for each observation
+            step(words.word(i), currScores, nextScores, backpointers, i * numTags, workspace, options);
+
+            // update it for the next observation
+            double[] swap = currScores;
+            currScores = nextScores;
+            nextScores = swap;
+        }
+
+        // determines state for last observation with highest score (closest to 0)
+        int bestFinalId = bestId(currScores);
+        if (bestFinalId == -1) return Double.NEGATIVE_INFINITY;
+        double bestScore = currScores[bestFinalId];
+
+        // fill in tag ids from last word of input to first word
+        int currId = bestFinalId;
+        for (int i = words.size() - 1; i >= 0; i--) {
+            rTagIds[i] = currId;
+            currId = backpointers[i * numTags + currId];    // get the previous state
+        }
+
+        return bestScore;
+    }
+
+    /**
+     * decode in O(sqrt(words) x tags) memory: the forward pass keeps the scores before every segment of
+     * sqrt(words) words, then segments are decoded again from their checkpoints, last to first, each backtraced
+     * from the state the segment after it came from. Every step adds exactly the same scores as the first time,
+     * so the path is exactly the one decode finds.
+     * @return the score of the best path, -infinity if there is none
+     */
+    private double decodeCheckpointed(Tokenizer words, ViterbiWorkspace workspace, int[] rTagIds, DecodeOptions options) {
+        int numTags = tags.length;
+        int numWords = words.size();
+        int segmentLength = Math.max(1, (int) Math.ceil(Math.sqrt(numWords)));
+        int numSegments = (numWords + segmentLength - 1) / segmentLength;
+        workspace.ensureTagCapacity(numTags);
+        workspace.ensureBackpointerCapacity(segmentLength, numTags);
+        workspace.ensureCheckpointCapacity(numSegments, numTags);
+
+        double[] currScores = workspace.currScores;
+        double[] nextScores = workspace.nextScores;
+        int[] backpointers = workspace.backpointers;    // [(i - start of segment) * numTags + nextId] -> best currId
+        double[] checkpoints = workspace.checkpoints;   // [segment * numTags + id] -> score before the segment
+
+        // forward pass, keeping only checkpoints, and the backpointers of the segment being scored
+        Arrays.fill(currScores, 0, numTags, Double.NEGATIVE_INFINITY);
+        currScores[startId] = 0.0;
+        for (int i = 0; i < numWords; i++) {
+            if (i % segmentLength == 0) System.arraycopy(currScores, 0, checkpoints, i / segmentLength * numTags, numTags);
+            step(words.word(i), currScores, nextScores, backpointers, i % segmentLength * numTags, workspace, options);
+
+            double[] swap = currScores;
+            currScores = nextScores;
+            nextScores = swap;
+        }
+
+        int currId = bestId(currScores);
+        if (currId == -1) return Double.NEGATIVE_INFINITY;
+        double bestScore = currScores[currId];
+
+        // backward pass: backpointers of the last segment are still there from the forward pass
+        for (int segment = numSegments - 1; segment >= 0; segment--) {
+            int begin = segment * segmentLength;
+            int end = Math.min(numWords, begin + segmentLength);
+
+            if (segment < numSegments - 1) {
+                System.arraycopy(checkpoints, segment * numTags, currScores, 0, numTags);
+                for (int i = begin; i < end; i++) {
+                    step(words.word(i), currScores, nextScores, backpointers, (i - begin) * numTags, workspace, options);
+
+                    double[] swap = currScores;
+                    currScores = nextScores;
+                    nextScores = swap;
+                }
+            }
+
+            // leaves currId at the state of the last word of the segment before
+            for (int i = end - 1; i >= begin; i--) {
+                rTagIds[i] = currId;
+                currId = backpointers[(i - begin) * numTags + currId];
+            }
+        }
+
+        return bestScore;
+    }
+
+    /**
+     * One Viterbi step: scores every nextState for word from currScores, writing the best currId of each into
+     * rBackpointers[column + nextId], then prunes as options say. Uses the observation and pruning buffers of
+     * workspace, which must fit the tagset.
+     */
+    void step(CharSequence word, double[] currScores, double[] rNextScores, int[] rBackpointers, int column,
+              ViterbiWorkspace workspace, DecodeOptions options) {
+        // score of the word for each nextState, only read
+        double[] observationScores = observationRow(word, workspace.observationScores, options.isSuffixGuessing());
+        step(word, observationScores, currScores, rNextScores, rBackpointers, column, workspace, options);
+    }
+
+    /**
+     * step, given the word's row of scores from observationRow, for callers that keep the row
+     */
+    void step(CharSequence word, double[] observationScores, double[] currScores, double[] rNextScores,
+              int[] rBackpointers, int column, ViterbiWorkspace workspace, DecodeOptions options) {
+        int numTags = tags.length;
+        if (options.isObservedTagsOnly()) {
+            // restrict the nextStates to the tags the word was seen with
+            Arrays.fill(rNextScores, 0, numTags, Double.NEGATIVE_INFINITY);
+            int numCandidates = observedTags(word, workspace.candidateIds, options.isSuffixGuessing());
+            expand(currScores, rNextScores, observationScores, rBackpointers, column, workspace.liveIds,
+                    workspace.candidateIds, numCandidates);
+        }
+        else {
+            maxPlus.step(currScores, transitionMatrix, observationScores, numTags, rNextScores, rBackpointers, column,
+                    workspace.stepScratch);
+        }
+
+        if (options.isBeam()) prune(rNextScores, numTags, options, workspace.beamScores, workspace.liveIds);
+    }
+
+    /**
+     * @return the tag id with the highest score (closest to 0), the lowest such id on ties, or -1 if every score
+     * is -infinity
+     */
+    int bestId(double[] scores) {
+        int bestId = -1;
+        for (int id = 0; id < tags.length; id++) {
+            if (scores[id] == Double.NEGATIVE_INFINITY) continue;
+            if (bestId == -1 || scores[id] > scores[bestId]) bestId = id;
+        }
+        return bestId;
+    }
+
+    /**
+     * @return log(p) of the transition from currId to nextId, -infinity if never seen
+     */
+    double getTransitionScore(int currId, int nextId) {
+        return transitionMatrix[currId * tags.length + nextId];
+    }
+
+    /**
+     * @return the probabilities of the transitions, [currId * tags.length + nextId] -> p, not to be written
+     */
+    double[] getTransitionProbabilities() {
+        return transitionProbabilities;
+    }
+
+    /**
+     * @return the tag id every sentence starts from
+     */
+    int getStartId() {
+        return startId;
+    }
+
+    /**
+     * Looks a word up once, rather than once per (currState, nextState) pair, and scatters its scores over the
+     * unknown row, so decoding loops need no branch for missing emissions
+     * @param rObservationScores filled with the score of the word for each tag id
+     */
+    void scoreObservation(CharSequence word, double[] rObservationScores) {
+        scoreObservation(word, rObservationScores, false);
+    }
+
+    /**
+     * scoreObservation, where if guessFromSuffix an unknown word is scored by the suffix trie instead, never below
+     * the unknown row
+     */
+    void scoreObservation(CharSequence word, double[] rObservationScores, boolean guessFromSuffix) {
+        System.arraycopy(unknownRow, 0, rObservationScores, 0, unknownRow.length);
+        int wordId = vocabulary.lookup(word);
+        if (wordId >= 0) {
+            for (int k = emissionOffsets.get(wordId); k < emissionOffsets.get(wordId + 1); k++) {
+                rObservationScores[emissionTags.get(k)] = emissionScore(k);
+            }
+        }
+        else if (guessFromSuffix && suffixes != null) {
+            int node = suffixes.find(word);
+            for (int id = 0; id < unknownRow.length; id++) {
+                rObservationScores[id] = Math.max(unknownRow[id], suffixes.score(node, id));
+            }
+        }
+    }
+
+    /**
+     * Returns the score of the word for each tag id without copying it where possible: a hot word's dense row, or
+     * the unknown row for an unknown word not guessed from its suffix. Otherwise fills scratch as
+     * scoreObservation does and returns it.
+     * @return the scores, which must not be written
+     */
+    double[] observationRow(CharSequence word, double[] scratch, boolean guessFromSuffix) {
+        int wordId = vocabulary.lookup(word);
+        if (wordId >= 0) {
+            int slot = hotSlot(wordId);
+            if (hotSlots[slot] == wordId) return hotRows[slot];
+        }
+        if (wordId < 0 && (!guessFromSuffix || suffixes == null)) return unknownRow;
+        scoreObservation(word, scratch, guessFromSuffix);
+        return scratch;
+    }
+
+    /**
+     * @return the emission score at index k of emissionTags, widened to a double
+     */
+    private double emissionScore(int k) {
+        switch (emissionPrecision) {
+            case FLOAT: return emissionFloats.get(k);
+            case QUANTIZED: return ScorePrecision.dequantize(emissionCodes.get(k));
+            default: return emissionScores.get(k);
+        }
+    }
+
+    /**
+     * Writes the tag ids the word was seen with in training into rCandidateIds, in increasing order, or every tag
+     * id if the word is unknown
+     * @return the number of tag ids written
+     */
+    int observedTags(CharSequence word, int[] rCandidateIds) {
+        return observedTags(word, rCandidateIds, false);
+    }
+
+    /**
+     * observedTags, where if guessFromSuffix an unknown word only takes the tags rare words ending like it were
+     * seen with, or every tag if the model has no suffix trie
+     */
+    int observedTags(CharSequence word, int[] rCandidateIds, boolean guessFromSuffix) {
+        int wordId = vocabulary.lookup(word);
+        if (wordId < 0 && guessFromSuffix && suffixes != null) {
+            int node = suffixes.find(word);
+            int numCandidates = 0;
+            for (int id = 0; id < tags.length; id++) {
+                if (suffixes.score(node, id) != Double.NEGATIVE_INFINITY) rCandidateIds[numCandidates++] = id;
+            }
+            return numCandidates;
+        }
+        if (wordId < 0) {
+            for (int id = 0; id < tags.length; id++) rCandidateIds[id] = id;
+            return tags.length;
+        }
+
+        int numCandidates = 0;
+        for (int k = emissionOffsets.get(wordId); k < emissionOffsets.get(wordId + 1); k++) {
+            rCandidateIds[numCandidates++] = emissionTags.get(k);
+        }
+        return numCandidates;
+    }
+
+    /**
+     * One Viterbi step over only the reachable currStates and the given candidate nextStates, both in increasing
+     * id order so ties are broken as in the full step. If no candidate can be reached, the step is redone over
+     * every nextState so the sentence still has a path.
+     * @param liveIds buffer of at least tags.length ints
+     */
+    private void expand(double[] currScores, double[] nextScores, double[] observationScores, int[] backpointers,
+                        int column, int[] liveIds, int[] candidateIds, int numCandidates) {
+        int numTags = tags.length;
+        int numLive = 0;
+        for (int currId = 0; currId < numTags; currId++) {
+            if (currScores[currId] != Double.NEGATIVE_INFINITY) liveIds[numLive++] = currId;
+        }
+
+        boolean reached = false;
+        for (int l = 0; l < numLive; l++) {
+            int currId = liveIds[l];
+            double currScore = currScores[currId];
+            int row = currId * numTags;
+            for (int c = 0; c < numCandidates; c++) {
+                int nextId = candidateIds[c];
+                double transitionScore = transitionMatrix[row + nextId];
+                if (transitionScore == Double.NEGATIVE_INFINITY) continue;    // transition never seen
+
+                double nextScore = currScore + transitionScore + observationScores[nextId];
+                if (nextScore > nextScores[nextId]) {
+                    nextScores[nextId] = nextScore;
+                    backpointers[column + nextId] = currId;
+                    reached = true;
+                }
+            }
+        }
+
+        if (!reached && numCandidates < numTags) {
+            for (int id = 0; id < numTags; id++) candidateIds[id] = id;
+            expand(currScores, nextScores, observationScores, backpointers, column, liveIds, candidateIds, numTags);
+        }
+    }
+
+    /**
+     * Drops (sets to -infinity) every state outside the beam: those more than the beam margin below the best
+     * score, and all but the beam width best. Ties at the cut are broken by lowest tag id.
+     * The width cut is the k-th best score, kept at the root of a min-heap of the k best seen so far while the
+     * states within the margin are gathered, so most states cost one comparison; only the gathered states are
+     * revisited to apply it.
+     * @param heap buffer of at least numTags doubles
+     * @param liveIds buffer of at least numTags ints
+     */
+    private static void prune(double[] scores, int numTags, DecodeOptions options, double[] heap, int[] liveIds) {
+        // lowest score kept by the margin
+        double cutoff = Double.NEGATIVE_INFINITY;
+        if (options.getBeamMargin() != Double.POSITIVE_INFINITY) {
+            double best = Double.NEGATIVE_INFINITY;
+            for (int id = 0; id < numTags; id++) best = Math.max(best, scores[id]);
+            cutoff = best - options.getBeamMargin();
+        }
+
+        // gather the states within the margin in id order, and the beam width best scores among them
+        int beamWidth = Math.min(options.getBeamWidth(), numTags);
+        int numLive = 0;
+        int heapSize = 0;
+        for (int id = 0; id < numTags; id++) {
+            double score = scores[id];
+            if (score == Double.NEGATIVE_INFINITY) continue;
+            if (score < cutoff) {
+                scores[id] = Double.NEGATIVE_INFINITY;
+                continue;
+            }
+            liveIds[numLive++] = id;
+            if (heapSize < beamWidth) {
+                heap[heapSize++] = score;
+                if (heapSize == beamWidth) heapify(heap, heapSize);
+            }
+            else if (beamWidth > 0 && score > heap[0]) siftDown(heap, heapSize, 0, score);
+        }
+        if (beamWidth == 0 || numLive <= beamWidth) return;
+
+        // lowest score kept by the width, and how many states scoring exactly that are kept
+        cutoff = heap[0];
+        int keepAtCutoff = beamWidth;
+        for (int k = 0; k < heapSize; k++) {
+            if (heap[k] > cutoff) keepAtCutoff--;
+        }
+
+        for (int k = 0; k < numLive; k++) {
+            int id = liveIds[k];
+            if (scores[id] < cutoff) scores[id] = Double.NEGATIVE_INFINITY;
+            else if (scores[id] == cutoff && keepAtCutoff-- <= 0) scores[id] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Reorders heap[0, size) into a min-heap
+     */
+    private static void heapify(double[] heap, int size) {
+        for (int k = size / 2 - 1; k >= 0; k--) siftDown(heap, size, k, heap[k]);
+    }
+
+    /**
+     * Replaces heap[k] with score and moves it down the min-heap heap[0, size) to where it belongs, given that
+     * both subtrees of k are already heaps
+     */
+    private static void siftDown(double[] heap, int size, int k, double score) {
+        while (2 * k + 1 < size) {
+            int child = 2 * k + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= score) break;
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = score;
+    }
+
+    /**
+     * @return the part of speech with the given tag id, as written by decode
+     */
+    public String getTag(int tagId) {
+        return tags[tagId];
+    }
+
+    /**
+     * @return the number of tag ids, including start
+     */
+    public int getNumTags() {
+        return tags.length;
+    }
+
+    /**
+     * @return approximate number of bytes held by the compiled emission scores, including the vocabulary
+     */
+    long emissionFootprintBytes() {
+        return vocabulary.footprintBytes() + 4L * (emissionOffsets.capacity() + emissionTags.capacity())
+                + (long) emissionPrecision.bytes() * emissionTags.capacity() + 8L * unknownRow.length
+                + (suffixes == null ? 0 : suffixes.footprintBytes())
+                + 4L * hotWordIds.capacity() + 12L * hotSlots.length + 8L * hotWordIds.capacity() * tags.length;
+    }
+
+    /**
+     * Writes the model to a binary file that load or map can read back without retraining.
+     * After ModelIO's header come the tag table and transition matrix, the vocabulary's hash table,
+     * the sparse emission rows (with the emission scores at their precision), the unknown row, after a flag
+     * the suffix trie (its rows at the emission precision too), and the hot word ids. The hot rows are rebuilt from the emission rows when read.
+     */
+    public void save(String modelFilePath) throws IOException {
+        try (ModelIO.Writer out = new ModelIO.Writer(modelFilePath, fileMagic, fileVersion)) {
+            out.writeStrings(tags);
+            out.writeInt(startId);
+            out.writeDoubles(DoubleBuffer.wrap(transitionMatrix));
+            vocabulary.write(out);
+            out.writeInts(emissionOffsets);
+            out.writeInts(emissionTags);
+            out.writeInt(emissionPrecision.ordinal());
+            switch (emissionPrecision) {
+                case FLOAT: out.writeFloats(emissionFloats); break;
+                case QUANTIZED: out.writeShorts(emissionCodes); break;
+                default: out.writeDoubles(emissionScores);
+            }
+            out.writeDoubles(DoubleBuffer.wrap(unknownRow));
+            out.writeInt(suffixes == null ? 0 : 1);
+            if (suffixes != null) suffixes.write(out);
+            out.writeInts(hotWordIds);
+        }
+    }
+
+    /**
+     * Reads a model written by save, copying it onto the heap.
+     * @throws IOException if the file cannot be read, is not a model file of this version, or fails its checksum
+     */
+    public static CompiledModel load(String modelFilePath) throws IOException {
+        return read(ByteBuffer.wrap(Files.readAllBytes(Paths.get(modelFilePath))), true, true);
+    }
+
+    /**
+     * Maps a model written by save into memory and decodes straight out of the mapping, without copying the
+     * vocabulary or emission rows onto the heap. Pages are read lazily and shared through the OS page cache
+     * with every other process mapping the same file. The file must be under 2 GB and must not be rewritten
+     * while mapped.
+     * @param verifyChecksum whether to check the file's checksum, which reads the whole file up front
+     * @throws IOException if the file cannot be mapped or is not a model file of this version
+     */
+    public static CompiledModel map(String modelFilePath, boolean verifyChecksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(modelFilePath), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), false, verifyChecksum);
+        }
+    }
+
+    /**
+     * Reads a model from a buffer holding a whole model file
+     * @param copy whether to copy the vocabulary and emission rows onto the heap, rather than keep views of file
+     */
+    private static CompiledModel read(ByteBuffer file, boolean copy, boolean verifyChecksum) throws IOException {
+        int version = ModelIO.readHeader(file, fileMagic, verifyChecksum);
+        if (version < 2 || version > fileVersion) throw new IOException("Unsupported model file version " + version + ".");
+
+        String[] tags = ModelIO.readStrings(file);
+        int startId = ModelIO.readInt(file);
+        double[] transitionMatrix = ModelIO.copy(ModelIO.readDoubles(file)).array();
+        Vocabulary vocabulary = Vocabulary.read(file, copy);
+        IntBuffer emissionOffsets = ModelIO.readInts(file);
+        IntBuffer emissionTags = ModelIO.readInts(file);
+
+        // version 2 files only hold doubles
+        ScorePrecision emissionPrecision = ScorePrecision.DOUBLE;
+        if (version > 2) {
+            int ordinal = ModelIO.readInt(file);
+            if (ordinal < 0 || ordinal >= ScorePrecision.values().length) throw new IOException("Model file has an unknown emission precision.");
+            emissionPrecision = ScorePrecision.values()[ordinal];
+        }
+        DoubleBuffer emissionScores = null;
+        FloatBuffer emissionFloats = null;
+        ShortBuffer emissionCodes = null;
+        int numScores;
+        switch (emissionPrecision) {
+            case FLOAT:
+                emissionFloats = ModelIO.readFloats(file);
+                numScores = emissionFloats.capacity();
+                break;
+            case QUANTIZED:
+                emissionCodes = ModelIO.readShorts(file);
+                numScores = emissionCodes.capacity();
+                break;
+            default:
+                emissionScores = ModelIO.readDoubles(file);
+                numScores = emissionScores.capacity();
+        }
+        double[] unknownRow = ModelIO.copy(ModelIO.readDoubles(file)).array();
+
+        // files before version 4 have no suffix trie
+        SuffixTrie suffixes = null;
+        // whose rows are doubles before version 6, and at the emission precision since
+        if (version > 3 && ModelIO.readInt(file) != 0) {
+            suffixes = SuffixTrie.read(file, tags.length, version > 5 ? emissionPrecision : ScorePrecision.DOUBLE, copy);
+            suffixes = suffixes.withPrecision(emissionPrecision);
+        }
+
+        // nor hot words before version 5
+        IntBuffer hotWordIds = version > 4 ? ModelIO.copy(ModelIO.readInts(file)) : IntBuffer.allocate(0);
+        for (int k = 0; k < hotWordIds.capacity(); k++) {
+            if (hotWordIds.get(k) < 0 || hotWordIds.get(k) >= vocabulary.size()) throw new IOException("Model file has an unknown hot word.");
+        }
+
+        if (transitionMatrix.length != tags.length * tags.length || unknownRow.length != tags.length
+                || startId < 0 || startId >= tags.length || emissionOffsets.capacity() != vocabulary.size() + 1
+                || emissionTags.capacity() != numScores) {
+            throw new IOException("Model file has inconsistent table sizes.");
+        }
+
+        if (copy) {
+            emissionOffsets = ModelIO.copy(emissionOffsets);
+            emissionTags = ModelIO.copy(emissionTags);
+            if (emissionScores != null) emissionScores = ModelIO.copy(emissionScores);
+            if (emissionFloats != null) emissionFloats = ModelIO.copy(emissionFloats);
+            if (emissionCodes != null) emissionCodes = ModelIO.copy(emissionCodes);
+        }
+        return new CompiledModel(tags, startId, transitionMatrix, vocabulary, emissionOffsets, emissionTags,
+                emissionPrecision, emissionScores, emissionFloats, emissionCodes, unknownRow, suffixes, hotWordIds);
+    }
+}
@@ -0,0 +1,167 @@
+import java.util.Objects;
+
+/**
+ * Immutable settings for how CompiledModel decodes a sentence. The default, exact(), runs full Viterbi and
+ * always finds the best path; the other settings trade some accuracy for speed on large tagsets.
+ */
+public final class DecodeOptions {
+    private static final DecodeOptions exact = new DecodeOptions(0, Double.POSITIVE_INFINITY, false, false, false);
+
+    private final int beamWidth;        // states kept at each observation, 0 to keep all
+    private final double beamMargin;    // states scoring more than this below the best are dropped
+    private final boolean observedTagsOnly; // whether a known word may only take tags it was seen with in training
+    private final boolean checkpointing;    // whether to keep checkpoints instead of every backpointer
+    private final boolean suffixGuessing;   // whether unknown words are scored by their suffixes
+
+    private DecodeOptions(int beamWidth, double beamMargin, boolean observedTagsOnly, boolean checkpointing,
+                          boolean suffixGuessing) {
+        this.beamWidth = beamWidth;
+        this.beamMargin = beamMargin;
+        this.observedTagsOnly = observedTagsOnly;
+        this.checkpointing = checkpointing;
+        this.suffixGuessing = suffixGuessing;
+    }
+
+    /**
+     * @return options for full Viterbi decoding, which always finds the best path
+     */
+    public static DecodeOptions exact() {
+        return exact;
+    }
+
+    /**
+     * @return options for beam decoding, see withBeam
+     */
+    public static DecodeOptions beam(int beamWidth, double beamMargin) {
+        return exact.withBeam(beamWidth, beamMargin);
+    }
+
+    /**
+     * Returns a copy of these options that keeps, after each observation, only the beamWidth best states and
+     * only those within beamMargin (in log probability) of the best state. The best path may be pruned away.
+     * @param beamWidth states kept at each observation, 0 to keep all
+     * @param beamMargin largest log score gap to the best state, Double.POSITIVE_INFINITY for no limit
+     */
+    public DecodeOptions withBeam(int beamWidth, double beamMargin) {
+        if (beamWidth < 0) throw new IllegalArgumentException("beam width must not be negative: " + beamWidth);
+        if (!(beamMargin >= 0)) throw new IllegalArgumentException("beam margin must not be negative: " + beamMargin);
+        return new DecodeOptions(beamWidth, beamMargin, observedTagsOnly, checkpointing, suffixGuessing);
+    }
+
+    /**
+     * @return options for decoding where known words only take observed tags, see withObservedTagsOnly
+     */
+    public static DecodeOptions observedTagsOnly() {
+        return exact.withObservedTagsOnly(true);
+    }
+
+    /**
+     * Returns a copy of these options where, if observedTagsOnly, each word seen in training may only take the
+     * tags it was seen with, instead of every tag with the unknown score. Unknown words may still take any tag.
+     * This cuts the work at each observation from |tags|^2 to about |tags of the previous word| x |tags of the word|.
+     * If none of a word's observed tags can follow the previous word, that word falls back to every tag.
+     */
+    public DecodeOptions withObservedTagsOnly(boolean observedTagsOnly) {
+        return new DecodeOptions(beamWidth, beamMargin, observedTagsOnly, checkpointing, suffixGuessing);
+    }
+
+    /**
+     * @return options for exact decoding in O(sqrt(words) x tags) memory, see withCheckpointing
+     */
+    public static DecodeOptions checkpointed() {
+        return exact.withCheckpointing(true);
+    }
+
+    /**
+     * Returns a copy of these options that, if checkpointing, decodes long inputs in O(sqrt(words) x tags) memory
+     * rather than O(words x tags): the forward pass only keeps the scores at the start of every sqrt(words)-th
+     * word, and each stretch between them is decoded again from its checkpoint on the way back to recover its
+     * backpointers. Takes about twice the time and finds exactly the same path.
+     */
+    public DecodeOptions withCheckpointing(boolean checkpointing) {
+        return new DecodeOptions(beamWidth, beamMargin, observedTagsOnly, checkpointing, suffixGuessing);
+    }
+
+    /**
+     * @return options for exact decoding where unknown words are scored by their suffixes, see withSuffixGuessing
+     */
+    public static DecodeOptions suffixGuessing() {
+        return exact.withSuffixGuessing(true);
+    }
+
+    /**
+     * Returns a copy of these options where, if suffixGuessing, a word not seen in training is scored by the rare
+     * training words that end like it, instead of the same score for every tag. With observedTagsOnly, it then
+     * only takes the tags those words were seen with. Models without a suffix trie, such as those loaded from
+     * older model files, score unknown words the same either way.
+     */
+    public DecodeOptions withSuffixGuessing(boolean suffixGuessing) {
+        return new DecodeOptions(beamWidth, beamMargin, observedTagsOnly, checkpointing, suffixGuessing);
+    }
+
+    /**
+     * @return states kept at each observation, 0 if all are kept
+     */
+    public int getBeamWidth() {
+        return beamWidth;
+    }
+
+    /**
+     * @return largest log score gap to the best state, infinite if there is no limit
+     */
+    public double getBeamMargin() {
+        return beamMargin;
+    }
+
+    /**
+     * @return whether known words only take the tags they were seen with
+     */
+    public boolean isObservedTagsOnly() {
+        return observedTagsOnly;
+    }
+
+    /**
+     * @return whether backpointers are recomputed from checkpoints to save memory
+     */
+    public boolean isCheckpointing() {
+        return checkpointing;
+    }
+
+    /**
+     * @return whether unknown words are scored by their suffixes
+     */
+    public boolean isSuffixGuessing() {
+        return suffixGuessing;
+    }
+
+    /**
+     * @return whether any states are pruned during decoding
+     */
+    boolean isBeam() {
+        return beamWidth > 0 || beamMargin != Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DecodeOptions)) return false;
+        DecodeOptions other = (DecodeOptions) o;
+        return beamWidth == other.beamWidth && Double.compare(beamMargin, other.beamMargin) == 0
+                && observedTagsOnly == other.observedTagsOnly && checkpointing == other.checkpointing
+                && suffixGuessing == other.suffixGuessing;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(beamWidth, beamMargin, observedTagsOnly, checkpointing, suffixGuessing);
+    }
+
+    @Override
+    public String toString() {
+        String options = !isBeam() ? "exact" : "beam(width " + (beamWidth == 0 ? "all" : beamWidth)
+                + ", margin " + (beamMargin == Double.POSITIVE_INFINITY ? "none" : beamMargin) + ")";
+        if (observedTagsOnly) options += ", observed tags";
+        if (checkpointing) options += ", checkpointed";
+        if (suffixGuessing) options += ", suffix guessing";
+        return options;
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Arrays;
+
+/**
+ * Forward-backward over a CompiledModel, giving the posterior probability of every tag at every word.
+ * Runs in probability space with the forward vector rescaled to sum to 1 at every word, so nothing underflows
+ * however long the sentence. Each word's log scores go through a log-sum-exp style shift: the largest is
+ * subtracted before exponentiating, and the shifts and rescalings are summed back in log space for the likelihood.
+ * So a word costs tags exponentials and two dense tags x tags multiply-adds, against the transition probabilities
+ * the model keeps alongside its log scores, and no exponentials in the inner loops.
+ */
+final class ForwardBackward {
+    private ForwardBackward() {
+    }
+
+    /**
+     * Runs forward-backward over words, leaving the posterior probability of tag id at word i in
+     * workspace.forward[i * numTags + id]
+     * @return log of the total score of all paths through the sentence, -infinity if there is none
+     */
+    static double run(CompiledModel model, Tokenizer words, ViterbiWorkspace workspace) {
+        int numTags = model.getNumTags();
+        int numWords = words.size();
+        workspace.ensureTagCapacity(numTags);
+        workspace.ensureForwardBackwardCapacity(numWords, numTags);
+
+        double[] transitions = model.getTransitionProbabilities();
+        double[] forward = workspace.forward;
+        double[] emissions = workspace.emissions;
+        double logLikelihood = 0;
+
+        // forward: forward[i] is proportional to p(words 0..i, tag at i), scaled to sum to 1
+        double[] prev = workspace.currScores;
+        Arrays.fill(prev, 0, numTags, 0.0);
+        prev[model.getStartId()] = 1.0;
+        for (int i = 0; i < numWords; i++) {
+            int column = i * numTags;
+            double[] observationScores = model.observationRow(words.word(i), workspace.observationScores, false);
+            double shift = Double.NEGATIVE_INFINITY;
+            for (int id = 0; id < numTags; id++) shift = Math.max(shift, observationScores[id]);
+            for (int id = 0; id < numTags; id++) emissions[column + id] = Math.exp(observationScores[id] - shift);
+
+            Arrays.fill(forward, column, column + numTags, 0.0);
+            for (int prevId = 0; prevId < numTags; prevId++) {
+                double p = prev[prevId];
+                if (p == 0) continue;   // state not reachable
+                int row = prevId * numTags;
+                for (int id = 0; id < numTags; id++) forward[column + id] += p * transitions[row + id];
+            }
+
+            double sum = 0;
+            for (int id = 0; id < numTags; id++) {
+                forward[column + id] *= emissions[column + id];
+                sum += forward[column + id];
+            }
+            if (sum == 0) return Double.NEGATIVE_INFINITY;     // no path
+            for (int id = 0; id < numTags; id++) forward[column + id] /= sum;
+            logLikelihood += Math.log(sum) + shift;
+
+            System.arraycopy(forward, column, prev, 0, numTags);
+        }
+
+        // backward: backward is proportional to p(words i+1.., tag at i), and the posterior at i is
+        // forward[i] * backward normalized, written over forward[i] once it is no longer needed
+        double[] backward = workspace.currScores;
+        double[] weighted = workspace.nextScores;
+        Arrays.fill(backward, 0, numTags, 1.0);
+        for (int i = numWords - 1; i >= 0; i--) {
+            int column = i * numTags;
+            double sum = 0;
+            for (int id = 0; id < numTags; id++) {
+                forward[column + id] *= backward[id];
+                sum += forward[column + id];
+            }
+            for (int id = 0; id < numTags; id++) forward[column + id] /= sum;
+            if (i == 0) break;
+
+            // backward at i-1, scaled so its largest entry is 1
+            for (int id = 0; id < numTags; id++) weighted[id] = emissions[column + id] * backward[id];
+            double largest = 0;
+            for (int prevId = 0; prevId < numTags; prevId++) {
+                int row = prevId * numTags;
+                double b = 0;
+                for (int id = 0; id < numTags; id++) b += transitions[row + id] * weighted[id];
+                backward[prevId] = b;
+                largest = Math.max(largest, b);
+            }
+            for (int prevId = 0; prevId < numTags; prevId++) backward[prevId] /= largest;
+        }
+
+        return logLikelihood;
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Viterbi lattice of one sentence, from which the k best paths are read lazily, as in algorithm 3 of Huang and
+ * Chiang, "Better k-best parsing" (2005). The best path into each state is the one Viterbi found. The next best
+ * paths into a state are only found when asked for, from a heap of candidates: for each state at the word before,
+ * the next best path into it not yet used, followed by the transition. Asking for the next path at the end of the
+ * sentence asks for at most one more path into one state at each word, so the k-th best path costs about
+ * words x log(tags) more than the (k-1)-th, plus tags for every state whose candidates are first needed.
+ * The lattice is held in the buffers of a ViterbiWorkspace, so it must be read before the workspace is next used.
+ */
+final class KBestLattice {
+    private final CompiledModel model;
+    private final int numWords;
+    private final int numTags;
+    private final double[] scores;          // [i * numTags + id] -> Viterbi score of id at word i
+    private final double[] observations;    // [i * numTags + id] -> score of word i for id
+    private final int[] backpointers;       // [i * numTags + id] -> best id at word i-1
+    private final int bestFinalId;          // -1 if there is no path
+    // [i * numTags + id] -> the paths into id at word i found past the best, or null if none have been asked for.
+    // [numWords * numTags] is the end of the sentence, which every state at the last word leads to with score 0.
+    private final Ranked[] ranked;
+
+    /**
+     * Runs Viterbi over words, keeping every score and backpointer in the buffers of workspace
+     */
+    KBestLattice(CompiledModel model, Tokenizer words, ViterbiWorkspace workspace, DecodeOptions options) {
+        this.model = model;
+        this.numWords = words.size();
+        this.numTags = model.getNumTags();
+        workspace.ensureTagCapacity(numTags);
+        workspace.ensureBackpointerCapacity(numWords, numTags);
+        workspace.ensureForwardBackwardCapacity(numWords, numTags);
+        workspace.ensureRankedCapacity(numWords * numTags + 1);
+        scores = workspace.forward;
+        observations = workspace.emissions;
+        backpointers = workspace.backpointers;
+        ranked = workspace.ranked;
+        Arrays.fill(ranked, 0, numWords * numTags + 1, null);
+
+        double[] currScores = workspace.currScores;
+        double[] nextScores = workspace.nextScores;
+        Arrays.fill(currScores, 0, numTags, Double.NEGATIVE_INFINITY);
+        currScores[model.getStartId()] = 0.0;
+
+        for (int i = 0; i < numWords; i++) {
+            // the word is looked up once, for both the step and the row kept for later paths
+            CharSequence word = words.word(i);
+            double[] observationScores = model.observationRow(word, workspace.observationScores, options.isSuffixGuessing());
+            System.arraycopy(observationScores, 0, observations, i * numTags, numTags);
+            model.step(word, observationScores, currScores, nextScores, backpointers, i * numTags, workspace, options);
+            System.arraycopy(nextScores, 0, scores, i * numTags, numTags);
+
+            double[] swap = currScores;
+            currScores = nextScores;
+            nextScores = swap;
+        }
+        bestFinalId = model.bestId(currScores);
+    }
+
+    /**
+     * @return the k best tag sequences, best first, or fewer if the sentence has fewer paths.
+     * Equal scores are ordered by the tag ids of the states they come from, last word first.
+     */
+    List<TagSequence> best(int k) {
+        List<TagSequence> rBest = new ArrayList<>();
+        if (numWords == 0) {
+            rBest.add(new TagSequence(new String[0], 0.0));
+            return rBest;
+        }
+        if (bestFinalId == -1) return rBest;
+
+        int end = numWords * numTags;
+        for (int rank = 0; rank < k && find(numWords, 0, rank); rank++) {
+            // follow the path back from the end of the sentence
+            String[] partsOfSpeech = new String[numWords];
+            int id = rank == 0 ? bestFinalId : ranked[end].prevIds[rank];
+            int prevRank = rank == 0 ? 0 : ranked[end].prevRanks[rank];
+            for (int i = numWords - 1; i >= 0; i--) {
+                partsOfSpeech[i] = model.getTag(id);
+                if (i == 0) break;
+                int node = i * numTags + id;
+                if (prevRank == 0) id = backpointers[node];
+                else {
+                    int prevId = ranked[node].prevIds[prevRank];
+                    prevRank = ranked[node].prevRanks[prevRank];
+                    id = prevId;
+                }
+            }
+            rBest.add(new TagSequence(partsOfSpeech, score(numWords, 0, rank)));
+        }
+        return rBest;
+    }
+
+    /**
+     * Finds the paths into id at word i up to the given rank (0 is the best), if there are that many.
+     * Word numWords is the end of the sentence, whose only state is 0.
+     * @return whether there is a path of that rank
+     */
+    private boolean find(int i, int id, int rank) {
+        if (rank == 0) return true;
+        if (i == 0) return false;   // the only way into a state at the first word is from start
+
+        Ranked paths = ranked(i, id);
+        while (paths.size <= rank) {
+            if (!paths.successorPushed) {
+                // the candidate after the last path found: the next path into the same state at word i-1
+                int last = paths.size - 1;
+                int prevId = paths.prevIds[last];
+                int prevRank = paths.prevRanks[last] + 1;
+                if (find(i - 1, prevId, prevRank)) {
+                    paths.push(prevId, prevRank, extend(score(i - 1, prevId, prevRank), i, prevId, id));
+                }
+                paths.successorPushed = true;
+            }
+            if (paths.numCandidates == 0) return false;
+            paths.pop();
+        }
+        return true;
+    }
+
+    /**
+     * @return the list of paths past the best into id at word i, starting it with the best path and a candidate
+     * for every other state at word i-1 if this is the first time it is asked for
+     */
+    private Ranked ranked(int i, int id) {
+        int node = i * numTags + id;
+        if (ranked[node] != null) return ranked[node];
+
+        Ranked paths = new Ranked();
+        int bestPrevId = i == numWords ? bestFinalId : backpointers[node];
+        paths.append(bestPrevId, 0, score(i, id, 0));
+        for (int prevId = 0; prevId < numTags; prevId++) {
+            if (prevId == bestPrevId) continue;
+            double score = extend(scores[(i - 1) * numTags + prevId], i, prevId, id);
+            if (score != Double.NEGATIVE_INFINITY) paths.push(prevId, 0, score);
+        }
+        ranked[node] = paths;
+        return paths;
+    }
+
+    /**
+     * @return the score of the path of the given rank into id at word i, which must have been found
+     */
+    private double score(int i, int id, int rank) {
+        if (rank > 0) return ranked[i * numTags + id].scores[rank];
+        return i == numWords ? scores[(numWords - 1) * numTags + bestFinalId] : scores[i * numTags + id];
+    }
+
+    /**
+     * @return the score of a path into prevId at word i-1 with the given score, followed by id at word i,
+     * added in the same order as the Viterbi step so the best paths score exactly the same
+     */
+    private double extend(double prevScore, int i, int prevId, int id) {
+        if (i == numWords) return prevScore;
+        return prevScore + model.getTransitionScore(prevId, id) + observations[i * numTags + id];
+    }
+
+    /**
+     * Paths into one state found so far, best first, each as the state it comes from at the word before and the
+     * rank of the path into that state, with a heap of candidates for the next path
+     */
+    static final class Ranked {
+        int[] prevIds = new int[4];
+        int[] prevRanks = new int[4];
+        double[] scores = new double[4];
+        int size;
+        boolean successorPushed;    // whether the candidate after the last path has been pushed
+
+        int[] candidateIds = new int[16];
+        int[] candidateRanks = new int[16];
+        double[] candidateScores = new double[16];
+        int numCandidates;
+
+        void append(int prevId, int prevRank, double score) {
+            if (size == prevIds.length) {
+                prevIds = Arrays.copyOf(prevIds, size * 2);
+                prevRanks = Arrays.copyOf(prevRanks, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            prevIds[size] = prevId;
+            prevRanks[size] = prevRank;
+            scores[size] = score;
+            size++;
+        }
+
+        void push(int prevId, int prevRank, double score) {
+            if (numCandidates == candidateIds.length) {
+                candidateIds = Arrays.copyOf(candidateIds, numCandidates * 2);
+                candidateRanks = Arrays.copyOf(candidateRanks, numCandidates * 2);
+                candidateScores = Arrays.copyOf(candidateScores, numCandidates * 2);
+            }
+            int k = numCandidates++;
+            set(k, prevId, prevRank, score);
+            // sift up
+            while (k > 0 && better((k - 1) / 2, k) == k) {
+                swap(k, (k - 1) / 2);
+                k = (k - 1) / 2;
+            }
+        }
+
+        /**
+         * Moves the best candidate onto the end of the paths
+         */
+        void pop() {
+            append(candidateIds[0], candidateRanks[0], candidateScores[0]);
+            successorPushed = false;
+
+            numCandidates--;
+            set(0, candidateIds[numCandidates], candidateRanks[numCandidates], candidateScores[numCandidates]);
+            // sift down
+            int k = 0;
+            while (2 * k + 1 < numCandidates) {
+                int child = 2 * k + 1;
+                if (child + 1 < numCandidates) child = better(child, child + 1);
+                if (better(k, child) == k) break;
+                swap(k, child);
+                k = child;
+            }
+        }
+
+        /**
+         * @return whichever of the candidates at a and b comes first: higher score, then lower id, then lower rank
+         */
+        private int better(int a, int b) {
+            if (candidateScores[a] != candidateScores[b]) return candidateScores[a] > candidateScores[b] ? a : b;
+            if (candidateIds[a] != candidateIds[b]) return candidateIds[a] < candidateIds[b] ? a : b;
+            return candidateRanks[a] <= candidateRanks[b] ? a : b;
+        }
+
+        private void set(int k, int prevId, int prevRank, double score) {
+            candidateIds[k] = prevId;
+            candidateRanks[k] = prevRank;
+            candidateScores[k] = score;
+        }
+
+        private void swap(int a, int b) {
+            int id = candidateIds[a];
+            int rank = candidateRanks[a];
+            double score = candidateScores[a];
+            set(a, candidateIds[b], candidateRanks[b], candidateScores[b]);
+            set(b, id, rank, score);
+        }
+    }
+}
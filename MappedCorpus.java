@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Counts a training corpus straight out of memory-mapped files, without decoding them into Strings.
+ * The sentences and tags files are walked as bytes, in lockstep and in windows of at most windowBytes, so files
+ * of any size can be read. Each word is hashed from its bytes and looked up in a table of the byte sequences seen
+ * so far; a String is only decoded the first time a word or tag is seen, to name it in the counts.
+ * Lines end at "\n", "\r" or "\r\n" and are split at single spaces, as BufferedReader.readLine and
+ * String.split(" ") do, and words are decoded with the default charset, as FileReader does, so the counts are
+ * exactly those TrainingCounts makes of the same files, for any charset that spells spaces and line ends as their
+ * ASCII bytes (UTF-8, ISO-8859-1, ...), though not for UTF-16.
+ */
+final class MappedCorpus {
+    private static final int windowBytes = 1 << 30;    // most bytes of a file mapped at once
+
+    private MappedCorpus() {
+    }
+
+    /**
+     * Counts every pair of lines of the files, stopping at the first pair with different numbers of words
+     * @param start part of speech every sentence starts from
+     * @throws IOException if a file cannot be read, or has a line longer than a window
+     */
+    static TrainingCounts count(String sentencesFilePath, String tagsFilePath, String start) throws IOException {
+        TrainingCounts counts = new TrainingCounts(start);
+        ByteInterner tagIds = new ByteInterner();
+        ByteInterner wordIds = new ByteInterner();
+        int[] lineTagIds = new int[64];
+        int[] lineWordIds = new int[64];
+
+        try (LineReader tags = new LineReader(tagsFilePath); LineReader obs = new LineReader(sentencesFilePath)) {
+            while (tags.next() && obs.next()) {
+                int numTags = tags.split();
+                int numWords = obs.split();
+                if (numTags != numWords) {
+                    counts.markMismatched();
+                    break;
+                }
+                if (lineTagIds.length < numWords) {
+                    lineTagIds = new int[numWords * 2];
+                    lineWordIds = new int[numWords * 2];
+                }
+
+                for (int i = 0; i < numWords; i++) {
+                    lineTagIds[i] = tags.intern(i, tagIds, counts, true);
+                    lineWordIds[i] = obs.intern(i, wordIds, counts, false);
+                }
+                counts.countIds(lineTagIds, lineWordIds, numWords);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Reads the lines of a file through a mapped window, moving the window on when a line runs past its end
+     */
+    private static final class LineReader implements AutoCloseable {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;       // file position of the first byte of window
+        private long position;          // file position of the next line
+        private boolean afterCarriageReturn;    // whether the current line ended in "\r"
+        private int lineStart;          // the current line, as indices into window
+        private int lineEnd;
+        private int[] starts = new int[64]; // word i of the current line -> its start in window
+        private int[] ends = new int[64];
+
+        LineReader(String filePath) throws IOException {
+            channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+            size = channel.size();
+            map(0);
+        }
+
+        /**
+         * Moves to the next line
+         * @return false at the end of the file
+         */
+        boolean next() throws IOException {
+            // a "\n" right after the last line's "\r" ends that line too
+            if (afterCarriageReturn && position < size) {
+                if (position - windowStart >= window.limit()) map(position);
+                if (window.get((int) (position - windowStart)) == '\n') position++;
+            }
+            if (position >= size) return false;
+
+            int end = find(position);
+            if (end == -1) {
+                // the line runs past the window, so start a new window at the line
+                map(position);
+                end = find(position);
+                if (end == -1) throw new IOException("Line longer than " + windowBytes + " bytes at byte " + position + ".");
+            }
+            lineStart = (int) (position - windowStart);
+            lineEnd = end;
+
+            afterCarriageReturn = end < window.limit() && window.get(end) == '\r';
+            position = windowStart + end + 1;
+            return true;
+        }
+
+        /**
+         * Splits the current line at every space, dropping trailing empty words, as String.split(" ") does
+         * @return the number of words
+         */
+        int split() {
+            int numWords = 0;
+            int nonEmpty = 0;
+            int start = lineStart;
+            for (int i = lineStart; i <= lineEnd; i++) {
+                if (i < lineEnd && window.get(i) != ' ') continue;
+                if (numWords == starts.length) {
+                    starts = Arrays.copyOf(starts, numWords * 2);
+                    ends = Arrays.copyOf(ends, numWords * 2);
+                }
+                starts[numWords] = start;
+                ends[numWords] = i;
+                numWords++;
+                if (i > start) nonEmpty = numWords;
+                start = i + 1;
+            }
+            return numWords > 1 ? nonEmpty : numWords;
+        }
+
+        /**
+         * @return the id in counts of word i of the current line, adding it to interner and counts if new
+         * @param isTag whether the word is a part of speech rather than an observation
+         */
+        int intern(int i, ByteInterner interner, TrainingCounts counts, boolean isTag) {
+            int start = starts[i];
+            int end = ends[i];
+            int hash = 0;
+            for (int k = start; k < end; k++) hash = 31 * hash + window.get(k);
+
+            int id = interner.get(window, start, end, hash);
+            if (id != -1) return id;
+
+            byte[] bytes = new byte[end - start];
+            window.get(start, bytes);
+            String word = new String(bytes, Charset.defaultCharset());
+            id = isTag ? counts.tagId(word) : counts.wordId(word);
+            interner.put(bytes, hash, id);
+            return id;
+        }
+
+        /**
+         * @return the index in window of the end of the line starting at file position from, or -1 if the
+         * window ends first
+         */
+        private int find(long from) {
+            int limit = window.limit();
+            for (int i = (int) (from - windowStart); i < limit; i++) {
+                byte b = window.get(i);
+                if (b == '\n' || b == '\r') return i;
+            }
+            // the file's last line need not end in a terminator
+            return windowStart + limit == size ? limit : -1;
+        }
+
+        private void map(long from) throws IOException {
+            windowStart = from;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(windowBytes, size - from));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Open-addressing table from byte sequences to ids, looked up by bytes in a mapped window without copying them
+     */
+    private static final class ByteInterner {
+        private byte[][] keys = new byte[1024][];   // null if the slot is empty
+        private int[] hashes = new int[1024];
+        private int[] ids = new int[1024];
+        private int size;
+
+        /**
+         * @return the id of window[start, end), whose hash is hash, or -1 if it has not been put
+         */
+        int get(MappedByteBuffer window, int start, int end, int hash) {
+            int mask = keys.length - 1;
+            for (int slot = spread(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                byte[] key = keys[slot];
+                if (hashes[slot] != hash || key.length != end - start) continue;
+
+                int k = 0;
+                while (k < key.length && key[k] == window.get(start + k)) k++;
+                if (k == key.length) return ids[slot];
+            }
+            return -1;
+        }
+
+        /**
+         * Adds key, which must not have been put before
+         */
+        void put(byte[] key, int hash, int id) {
+            // keep the table at most half full
+            if ((size + 1) * 2 > keys.length) grow();
+            int mask = keys.length - 1;
+            int slot = spread(hash) & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            hashes[slot] = hash;
+            ids[slot] = id;
+            size++;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            int[] oldHashes = hashes;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            hashes = new int[keys.length];
+            ids = new int[keys.length];
+
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) continue;
+                int slot = spread(oldHashes[i]) & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * One step of Viterbi over every tag: for each nextState, the best currState to come from and its score, given
+ * the scores of the currStates, the transition matrix and the scores of the word.
+ * The scalar kernel runs everywhere. The vector kernel uses the incubating Vector API, so it is kept in the separate
+ * source root vector/ and is only available when that root is compiled and run with the jdk.incubator.vector module;
+ * both find the same scores and backpointers.
+ */
+interface MaxPlusKernel {
+    /**
+     * Sets rNextScores[nextId] to the largest currScores[currId] + transitionMatrix[currId * numTags + nextId] +
+     * observationScores[nextId] over all currIds, and rBackpointers[column + nextId] to the lowest currId reaching
+     * it. A nextState no currState can reach scores -infinity and its backpointer is left undefined.
+     * @param scratch buffer of at least numTags doubles
+     */
+    void step(double[] currScores, double[] transitionMatrix, double[] observationScores, int numTags,
+              double[] rNextScores, int[] rBackpointers, int column, double[] scratch);
+
+    /**
+     * @return the plain Java kernel
+     */
+    static MaxPlusKernel scalar() {
+        return ScalarMaxPlusKernel.instance;
+    }
+
+    /**
+     * @return the Vector API kernel, or null if it was not compiled, the jdk.incubator.vector module is missing or
+     * the platform has no vectors wide enough
+     */
+    static MaxPlusKernel vector() {
+        try {
+            // loaded by name so that nothing links against the incubator module unless it is present
+            return (MaxPlusKernel) Class.forName("VectorMaxPlusKernel").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the kernel named by the sudi.kernel system property (scalar or vector), by default the vector
+     * kernel if it is available. Falls back to the scalar kernel if the vector kernel is not available.
+     */
+    static MaxPlusKernel preferred() {
+        if ("scalar".equals(System.getProperty("sudi.kernel"))) return scalar();
+        MaxPlusKernel vector = vector();
+        return vector != null ? vector : scalar();
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reading and writing of model files.
+ * A model file is a 16 byte header (magic number, format version, CRC32 of everything after the header)
+ * followed by sections. Every value is little-endian, and every array is written as its int length followed by
+ * its elements starting at the next multiple of 8 bytes, so a mapped file can be read through aligned views of
+ * the mapping without copying anything onto the heap.
+ */
+final class ModelIO {
+    static final ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+    static final int headerBytes = 16;
+
+    private ModelIO() {
+    }
+
+    /**
+     * Writes a model file section by section, keeping a running checksum that close writes into the header
+     */
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(order);
+        private final CRC32 checksum = new CRC32();
+        private long position;  // bytes written so far, counting the header
+
+        Writer(String modelFilePath, int magic, int version) throws IOException {
+            channel = FileChannel.open(Paths.get(modelFilePath), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            // the checksum is filled in by close
+            ByteBuffer header = ByteBuffer.allocate(headerBytes).order(order);
+            header.putInt(magic).putInt(version).putLong(0).flip();
+            while (header.hasRemaining()) channel.write(header);
+            position = headerBytes;
+        }
+
+        void writeInt(int value) throws IOException {
+            ensureRoom(Integer.BYTES);
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        void writeInts(IntBuffer values) throws IOException {
+            writeLengthAndAlign(values.remaining());
+            for (int i = values.position(); i < values.limit(); i++) {
+                ensureRoom(Integer.BYTES);
+                buffer.putInt(values.get(i));
+            }
+            position += (long) values.remaining() * Integer.BYTES;
+        }
+
+        void writeDoubles(DoubleBuffer values) throws IOException {
+            writeLengthAndAlign(values.remaining());
+            for (int i = values.position(); i < values.limit(); i++) {
+                ensureRoom(Double.BYTES);
+                buffer.putDouble(values.get(i));
+            }
+            position += (long) values.remaining() * Double.BYTES;
+        }
+
+        void writeFloats(FloatBuffer values) throws IOException {
+            writeLengthAndAlign(values.remaining());
+            for (int i = values.position(); i < values.limit(); i++) {
+                ensureRoom(Float.BYTES);
+                buffer.putFloat(values.get(i));
+            }
+            position += (long) values.remaining() * Float.BYTES;
+        }
+
+        void writeShorts(ShortBuffer values) throws IOException {
+            writeLengthAndAlign(values.remaining());
+            for (int i = values.position(); i < values.limit(); i++) {
+                ensureRoom(Short.BYTES);
+                buffer.putShort(values.get(i));
+            }
+            position += (long) values.remaining() * Short.BYTES;
+        }
+
+        void writeChars(CharBuffer values) throws IOException {
+            writeLengthAndAlign(values.remaining());
+            for (int i = values.position(); i < values.limit(); i++) {
+                ensureRoom(Character.BYTES);
+                buffer.putChar(values.get(i));
+            }
+            position += (long) values.remaining() * Character.BYTES;
+        }
+
+        void writeStrings(String[] values) throws IOException {
+            writeInt(values.length);
+            for (String value : values) writeChars(CharBuffer.wrap(value));
+        }
+
+        /**
+         * Writes an array length, then zero padding up to the next multiple of 8 bytes
+         */
+        private void writeLengthAndAlign(int length) throws IOException {
+            writeInt(length);
+            while (position % 8 != 0) {
+                ensureRoom(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        private void ensureRoom(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            checksum.update(buffer.duplicate());
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                ByteBuffer crc = ByteBuffer.allocate(Long.BYTES).order(order);
+                crc.putLong(checksum.getValue()).flip();
+                while (crc.hasRemaining()) channel.write(crc, 8 + crc.position());
+            }
+            finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Checks the header of a whole model file held in buffer, positions buffer after the header and
+     * returns the format version.
+     * @param verifyChecksum whether to compute the checksum of the rest of the file, which reads all of it
+     */
+    static int readHeader(ByteBuffer buffer, int magic, boolean verifyChecksum) throws IOException {
+        buffer.order(order);
+        if (buffer.remaining() < headerBytes || buffer.getInt() != magic) throw new IOException("Not a Sudi model file.");
+        int version = buffer.getInt();
+        long expectedChecksum = buffer.getLong();
+
+        if (verifyChecksum) {
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate());
+            if (checksum.getValue() != expectedChecksum) {
+                throw new IOException("Model file is corrupt (checksum mismatch).");
+            }
+        }
+        return version;
+    }
+
+    static int readInt(ByteBuffer in) throws IOException {
+        if (in.remaining() < Integer.BYTES) throw new IOException("Model file is truncated.");
+        return in.getInt();
+    }
+
+    /**
+     * @return a read-only view of the next int array in the file, backed by in
+     */
+    static IntBuffer readInts(ByteBuffer in) throws IOException {
+        int length = readLengthAndAlign(in, Integer.BYTES);
+        IntBuffer values = in.slice().order(order).limit(length * Integer.BYTES).asIntBuffer().asReadOnlyBuffer();
+        in.position(in.position() + length * Integer.BYTES);
+        return values;
+    }
+
+    /**
+     * @return a read-only view of the next double array in the file, backed by in
+     */
+    static DoubleBuffer readDoubles(ByteBuffer in) throws IOException {
+        int length = readLengthAndAlign(in, Double.BYTES);
+        DoubleBuffer values = in.slice().order(order).limit(length * Double.BYTES).asDoubleBuffer().asReadOnlyBuffer();
+        in.position(in.position() + length * Double.BYTES);
+        return values;
+    }
+
+    /**
+     * @return a read-only view of the next float array in the file, backed by in
+     */
+    static FloatBuffer readFloats(ByteBuffer in) throws IOException {
+        int length = readLengthAndAlign(in, Float.BYTES);
+        FloatBuffer values = in.slice().order(order).limit(length * Float.BYTES).asFloatBuffer().asReadOnlyBuffer();
+        in.position(in.position() + length * Float.BYTES);
+        return values;
+    }
+
+    /**
+     * @return a read-only view of the next short array in the file, backed by in
+     */
+    static ShortBuffer readShorts(ByteBuffer in) throws IOException {
+        int length = readLengthAndAlign(in, Short.BYTES);
+        ShortBuffer values = in.slice().order(order).limit(length * Short.BYTES).asShortBuffer().asReadOnlyBuffer();
+        in.position(in.position() + length * Short.BYTES);
+        return values;
+    }
+
+    /**
+     * @return a read-only view of the next char array in the file, backed by in
+     */
+    static CharBuffer readChars(ByteBuffer in) throws IOException {
+        int length = readLengthAndAlign(in, Character.BYTES);
+        CharBuffer values = in.slice().order(order).limit(length * Character.BYTES).asCharBuffer().asReadOnlyBuffer();
+        in.position(in.position() + length * Character.BYTES);
+        return values;
+    }
+
+    static String[] readStrings(ByteBuffer in) throws IOException {
+        String[] values = new String[readInt(in)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readChars(in).toString();
+        }
+        return values;
+    }
+
+    /**
+     * @return a heap copy of values, which is faster to read than a view of a heap byte buffer
+     */
+    static IntBuffer copy(IntBuffer values) {
+        int[] array = new int[values.remaining()];
+        values.duplicate().get(array);
+        return IntBuffer.wrap(array);
+    }
+
+    static DoubleBuffer copy(DoubleBuffer values) {
+        double[] array = new double[values.remaining()];
+        values.duplicate().get(array);
+        return DoubleBuffer.wrap(array);
+    }
+
+    static FloatBuffer copy(FloatBuffer values) {
+        float[] array = new float[values.remaining()];
+        values.duplicate().get(array);
+        return FloatBuffer.wrap(array);
+    }
+
+    static ShortBuffer copy(ShortBuffer values) {
+        short[] array = new short[values.remaining()];
+        values.duplicate().get(array);
+        return ShortBuffer.wrap(array);
+    }
+
+    static CharBuffer copy(CharBuffer values) {
+        char[] array = new char[values.remaining()];
+        values.duplicate().get(array);
+        return CharBuffer.wrap(array);
+    }
+
+    /**
+     * Reads an array length, skips the padding after it and checks the buffer holds that many elements
+     * of elementBytes bytes each
+     */
+    private static int readLengthAndAlign(ByteBuffer in, int elementBytes) throws IOException {
+        int length = readInt(in);
+        // positions in the buffer are relative to the start of the file, which is page aligned when mapped
+        int aligned = (in.position() + 7) & ~7;
+        if (length < 0 || aligned > in.limit() || (long) length * elementBytes > in.limit() - aligned) {
+            throw new IOException("Model file is truncated.");
+        }
+        in.position(aligned);
+        return length;
+    }
+}
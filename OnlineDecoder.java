@@ -0,0 +1,258 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Viterbi over an unbounded stream of words, such as a log, with no sentence boundaries.
+ * Words are pushed one at a time, and a word's part of speech is committed to the output as soon as every path
+ * still alive agrees on it: all surviving states trace back through the same state at that word, so no later word
+ * can change it. Only the backpointers of words not yet committed are kept, in a ring that is reused.
+ * Paths usually converge within a few words, but nothing forces them to; a maximum lag bounds memory by
+ * committing the oldest pending word along the currently best path, as fixed-lag decoding does, even though a later
+ * word could still have moved the best path through another state there. There is always a maximum lag unless the
+ * caller asks for an unbounded one, since otherwise a stream whose paths never converge would keep every word.
+ * If no state the stream can be in may be followed by the next word, the stream is ended before that word, as if a
+ * sentence ended there, and starts again, even when every earlier word is already committed. So pushing the words of
+ * one sentence no longer than the maximum lag and then calling flush outputs the same tags as CompiledModel.dissect
+ * whenever dissect finds a path through the sentence.
+ * An OnlineDecoder must only be used by one thread at a time.
+ */
+public class OnlineDecoder {
+    /** Maximum lag of the default decoder, longer than any sentence in the Brown corpus */
+    public static final int defaultMaxLag = 256;
+    /** Maximum lag that never forces a commit, so pending words are only bounded by where the paths converge */
+    public static final int unbounded = Integer.MAX_VALUE;
+
+    // scores only ever fall, so once the best falls below this they are all shifted back up to keep their precision
+    private static final double rescaleBelow = -1e6;
+
+    private final CompiledModel model;
+    private final DecodeOptions options;
+    private final int maxLag;               // most words left pending after a push, unbounded for no limit
+    private final Consumer<String> output;  // receives each committed part of speech, in stream order
+    private final int numTags;
+
+    private final ViterbiWorkspace workspace = new ViterbiWorkspace();
+    private double[] currScores;            // score for each state at the newest word, -infinity if not reachable
+    private double[] nextScores;
+    private int[] backpointers;             // ring of columns, one per pending word: [slot * numTags + id] -> best previous id
+    private int capacity;                   // number of columns in the ring
+    private int first;                      // slot of the oldest pending word
+    private int pending;                    // words pushed but not yet committed
+    private long committed;                 // words committed since the decoder was made
+    private boolean atStart;                // whether currScores is still the start of the stream
+
+    // scratch for following paths back through the pending words
+    private int[] states;
+    private int[] previousStates;
+    private int[] marks;                    // state id -> the last value of mark it was added at
+    private int mark;
+    private int[] path;                     // pending index -> tag id, while committing
+
+    /**
+     * A decoder running full Viterbi, holding back as many words as it takes the paths to converge, up to
+     * defaultMaxLag
+     * @param output receives each committed part of speech, in stream order
+     */
+    public OnlineDecoder(CompiledModel model, Consumer<String> output) {
+        this(model, DecodeOptions.exact(), defaultMaxLag, output);
+    }
+
+    /**
+     * @param options how to decode, such as with a beam
+     * @param maxLag most words to hold back after each push, at least 1, or unbounded for no limit
+     * @param output receives each committed part of speech, in stream order
+     */
+    public OnlineDecoder(CompiledModel model, DecodeOptions options, int maxLag, Consumer<String> output) {
+        if (maxLag < 1) throw new IllegalArgumentException("max lag must be at least 1: " + maxLag);
+        this.model = model;
+        this.options = options;
+        this.maxLag = maxLag;
+        this.output = output;
+        this.numTags = model.getNumTags();
+
+        workspace.ensureCapacity(1, numTags);
+        currScores = new double[numTags];
+        nextScores = new double[numTags];
+        capacity = maxLag == unbounded ? 16 : maxLag + 1;
+        backpointers = new int[capacity * numTags];
+        states = new int[numTags];
+        previousStates = new int[numTags];
+        marks = new int[numTags];
+        path = new int[capacity];
+        reset();
+    }
+
+    /**
+     * Adds the next word of the stream, committing the parts of speech of any words the paths now agree on
+     */
+    public void push(CharSequence word) {
+        if (pending == capacity) grow();
+
+        int column = (first + pending) % capacity * numTags;
+        model.step(word, currScores, nextScores, backpointers, column, workspace, options);
+
+        if (model.bestId(nextScores) == -1 && !atStart) {
+            // no state the stream can be in may be followed by this word, so the stream is ended before the word,
+            // as at the end of a sentence, and the word starts again from start
+            flush();
+            model.step(word, currScores, nextScores, backpointers, 0, workspace, options);
+        }
+        pending++;
+        atStart = false;
+
+        double[] swap = currScores;
+        currScores = nextScores;
+        nextScores = swap;
+
+        rescale();
+        commitConverged();
+        if (pending > maxLag) commitOldest(pending - maxLag);
+    }
+
+    /**
+     * Ends the stream: commits every pending word along the best path and starts over as if at the start of a
+     * sentence. If there is no path through the pending words, which can only happen when no state can follow the
+     * start, each of them is committed as null.
+     */
+    public void flush() {
+        int bestId = model.bestId(currScores);
+        if (pending > 0) {
+            if (bestId == -1) commitUnreachable(pending);
+            else commitThrough(pending - 1, bestId);
+        }
+        reset();
+    }
+
+    /**
+     * @return the number of words pushed whose parts of speech are not yet committed
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return the number of parts of speech committed so far
+     */
+    public long getCommitted() {
+        return committed;
+    }
+
+    private void reset() {
+        Arrays.fill(currScores, Double.NEGATIVE_INFINITY);
+        currScores[model.getStartId()] = 0.0;
+        first = 0;
+        pending = 0;
+        atStart = true;
+    }
+
+    /**
+     * Follows every surviving state back through the pending words, and commits up to the newest word where
+     * they have all come together into one state
+     */
+    private void commitConverged() {
+        int numStates = 0;
+        for (int id = 0; id < numTags; id++) {
+            if (currScores[id] != Double.NEGATIVE_INFINITY) states[numStates++] = id;
+        }
+        if (numStates == 0) return;     // no path, so nothing to commit until the stream restarts
+
+        for (int i = pending - 1; i >= 0; i--) {
+            if (numStates == 1) {
+                commitThrough(i, states[0]);
+                return;
+            }
+            if (i == 0) return;
+
+            // the distinct states at word i-1 that the states at word i came from
+            mark++;
+            int column = (first + i) % capacity * numTags;
+            int numPrevious = 0;
+            for (int k = 0; k < numStates; k++) {
+                int previousId = backpointers[column + states[k]];
+                if (marks[previousId] != mark) {
+                    marks[previousId] = mark;
+                    previousStates[numPrevious++] = previousId;
+                }
+            }
+            int[] swap = states;
+            states = previousStates;
+            previousStates = swap;
+            numStates = numPrevious;
+        }
+    }
+
+    /**
+     * Commits the oldest numWords pending words along the currently best path
+     */
+    private void commitOldest(int numWords) {
+        int bestId = model.bestId(currScores);
+        if (bestId == -1) {
+            commitUnreachable(numWords);
+            return;
+        }
+        int last = numWords - 1;    // pending index of the last word to commit
+        commitThrough(last, ancestor(bestId, last));
+    }
+
+    /**
+     * @return the state at pending index i on the path ending in state id at the newest word
+     */
+    private int ancestor(int id, int i) {
+        for (int j = pending - 1; j > i; j--) {
+            id = backpointers[(first + j) % capacity * numTags + id];
+        }
+        return id;
+    }
+
+    /**
+     * Outputs the parts of speech of pending indices 0 to last, on the path through state lastId at last,
+     * and drops them from the ring
+     */
+    private void commitThrough(int last, int lastId) {
+        path[last] = lastId;
+        for (int i = last; i > 0; i--) {
+            path[i - 1] = backpointers[(first + i) % capacity * numTags + path[i]];
+        }
+        for (int i = 0; i <= last; i++) output.accept(model.getTag(path[i]));
+
+        first = (first + last + 1) % capacity;
+        pending -= last + 1;
+        committed += last + 1;
+    }
+
+    /**
+     * Outputs null for each of the oldest numWords pending words, which no path reaches, and drops them from the ring
+     */
+    private void commitUnreachable(int numWords) {
+        for (int i = 0; i < numWords; i++) output.accept(null);
+        first = (first + numWords) % capacity;
+        pending -= numWords;
+        committed += numWords;
+    }
+
+    /**
+     * Shifts every score up by the best one once it gets far below 0. Never happens within a sentence of any
+     * sensible length, so decoding a single sentence adds exactly as dissect does.
+     */
+    private void rescale() {
+        int bestId = model.bestId(currScores);
+        if (bestId == -1 || currScores[bestId] >= rescaleBelow) return;
+
+        double best = currScores[bestId];
+        for (int id = 0; id < numTags; id++) currScores[id] -= best;
+    }
+
+    /**
+     * Doubles the ring, moving the pending columns to the start of it. Only an unbounded decoder ever fills its ring.
+     */
+    private void grow() {
+        int[] newBackpointers = new int[capacity * 2 * numTags];
+        for (int i = 0; i < pending; i++) {
+            System.arraycopy(backpointers, (first + i) % capacity * numTags, newBackpointers, i * numTags, numTags);
+        }
+        backpointers = newBackpointers;
+        path = new int[capacity * 2];
+        capacity *= 2;
+        first = 0;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * The posterior distribution over parts of speech of each word of a sentence, from forward-backward
+ */
+public final class Posteriors {
+    private final String[] tags;            // tag id -> part of speech
+    private final int numWords;
+    private final double[] probabilities;   // [i * tags.length + id] -> p(tag id at word i | sentence)
+    private final double logLikelihood;
+
+    Posteriors(String[] tags, int numWords, double[] probabilities, double logLikelihood) {
+        this.tags = tags;
+        this.numWords = numWords;
+        this.probabilities = probabilities;
+        this.logLikelihood = logLikelihood;
+    }
+
+    /**
+     * @return the number of words in the sentence
+     */
+    public int getNumWords() {
+        return numWords;
+    }
+
+    /**
+     * @return the probability that word i has the given part of speech, 0 for a part of speech the model does not know
+     */
+    public double getProbability(int i, String partOfSpeech) {
+        for (int id = 0; id < tags.length; id++) {
+            if (tags[id].equals(partOfSpeech)) return probabilities[i * tags.length + id];
+        }
+        return 0;
+    }
+
+    /**
+     * @return the most probable part of speech of word i
+     */
+    public String getBestTag(int i) {
+        return tags[bestId(i)];
+    }
+
+    /**
+     * @return the probability of the most probable part of speech of word i
+     */
+    public double getBestProbability(int i) {
+        return probabilities[i * tags.length + bestId(i)];
+    }
+
+    /**
+     * @return log of the total score of every tagging of the sentence
+     */
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    private int bestId(int i) {
+        int bestId = 0;
+        for (int id = 1; id < tags.length; id++) {
+            if (probabilities[i * tags.length + id] > probabilities[i * tags.length + bestId]) bestId = id;
+        }
+        return bestId;
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.Arrays;
+
+/**
+ * Plain Java max-plus step, skipping unreachable states and transitions never seen
+ */
+final class ScalarMaxPlusKernel implements MaxPlusKernel {
+    static final ScalarMaxPlusKernel instance = new ScalarMaxPlusKernel();
+
+    private ScalarMaxPlusKernel() {
+    }
+
+    @Override
+    public void step(double[] currScores, double[] transitionMatrix, double[] observationScores, int numTags,
+                     double[] rNextScores, int[] rBackpointers, int column, double[] scratch) {
+        Arrays.fill(rNextScores, 0, numTags, Double.NEGATIVE_INFINITY);
+        for (int currId = 0; currId < numTags; currId++) {   // for each state at observation i-1
+            double currScore = currScores[currId];
+            if (currScore == Double.NEGATIVE_INFINITY) continue;   // state not reachable
+
+            int row = currId * numTags;
+            for (int nextId = 0; nextId < numTags; nextId++) {   // for each nextState to transition to from currState
+                double transitionScore = transitionMatrix[row + nextId];
+                if (transitionScore == Double.NEGATIVE_INFINITY) continue;    // transition never seen
+
+                // nextScore = currScore for currState + transition score for currState to nextState + observation score for word with nextState
+                double nextScore = currScore + transitionScore + observationScores[nextId];
+                if (nextScore > rNextScores[nextId]) {
+                    rNextScores[nextId] = nextScore;
+                    rBackpointers[column + nextId] = currId;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * How CompiledModel stores its emission scores, the table that grows with the vocabulary.
+ * Lower precisions make the table smaller, so more of it stays in cache while decoding, at the cost of rounding
+ * every score. Decoding always adds scores in double precision.
+ */
+public enum ScorePrecision {
+    /** 8 bytes per score, exact */
+    DOUBLE,
+    /** 4 bytes per score, rounded to the nearest float (about 7 significant digits) */
+    FLOAT,
+    /**
+     * 2 bytes per score: a log probability p is stored as the unsigned 16 bit integer round(-p * quantizedScale),
+     * so scores are rounded to the nearest 1/1024 and any score below -65535/1024 (about -64) is clamped to it
+     */
+    QUANTIZED;
+
+    static final double quantizedScale = 1024;
+
+    /**
+     * @return the 16 bit code of a log probability, see QUANTIZED
+     */
+    static short quantize(double score) {
+        return (short) Math.min(0xFFFF, Math.max(0, Math.round(-score * quantizedScale)));
+    }
+
+    /**
+     * @return the log probability of a 16 bit code, see QUANTIZED
+     */
+    static double dequantize(short code) {
+        return -(code & 0xFFFF) / quantizedScale;
+    }
+
+    /**
+     * @return the number of bytes each score takes
+     */
+    int bytes() {
+        switch (this) {
+            case FLOAT: return Float.BYTES;
+            case QUANTIZED: return Short.BYTES;
+            default: return Double.BYTES;
+        }
+    }
+}
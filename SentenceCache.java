@@ -0,0 +1,174 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of dissected sentences, for input that repeats whole sentences, such as templated or boilerplate
+ * text. Sentences are keyed by their text folded to lowercase, as the model folds words when looking them up,
+ * together with the decode options, so two sentences differing only in case share an entry.
+ * When the cache holds more than its maximum number of entries or estimated bytes, the least recently used
+ * entries are evicted.
+ * A cache belongs to the one model it was last invalidated with: results are only looked up and stored for that
+ * model, so a dissect still running on a replaced model can never store a stale result.
+ * Safe for any number of threads; lookups and stores take a lock, while dissecting runs outside it.
+ */
+public final class SentenceCache {
+    // rough heap cost of an entry beyond its key's characters and its tags: the map entry, the key and its
+    // string, and the array header
+    private static final int entryOverheadBytes = 40 + 24 + 40 + 16;
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // key -> parts of speech, least recently used first. Guarded by this
+    private final LinkedHashMap<Key, String[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private CompiledModel model;    // the model the entries were dissected by
+    private long bytes;             // estimated heap held by the entries
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxEntries most sentences held, at least 1
+     * @param maxBytes most heap the entries are estimated to hold, Long.MAX_VALUE for no limit
+     */
+    public SentenceCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1) throw new IllegalArgumentException("max entries must be positive: " + maxEntries);
+        if (maxBytes < 1) throw new IllegalArgumentException("max bytes must be positive: " + maxBytes);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Dissects input with model, through the cache if model is the cache's model
+     * @return a copy of the cached parts of speech, which the caller may change
+     */
+    String[] dissect(CompiledModel model, String input, DecodeOptions options) {
+        Key key = new Key(fold(input), options);
+        synchronized (this) {
+            if (model == this.model) {
+                String[] partsOfSpeech = entries.get(key);
+                if (partsOfSpeech != null) {
+                    hits++;
+                    return partsOfSpeech.clone();
+                }
+                misses++;
+            }
+        }
+
+        String[] partsOfSpeech = model.dissect(input, options);
+        put(model, key, partsOfSpeech.clone());
+        return partsOfSpeech;
+    }
+
+    /**
+     * Drops every entry, and from now on only caches sentences dissected by model
+     */
+    synchronized void invalidate(CompiledModel model) {
+        this.model = model;
+        clear();
+    }
+
+    /**
+     * Drops every entry, without counting them as evictions
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return the number of dissects answered from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of dissects that were not in the cache
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries dropped to keep within the maximum entries and bytes
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of sentences held
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated heap held by the entries
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entries, %d KB, %d hits, %d misses, %d evictions", entries.size(), bytes / 1024,
+                hits, misses, evictions);
+    }
+
+    private synchronized void put(CompiledModel model, Key key, String[] partsOfSpeech) {
+        if (model != this.model) return;    // replaced while dissecting
+        long entryBytes = entryBytes(key, partsOfSpeech);
+        if (entryBytes > maxBytes) return;  // would evict everything and still not fit
+
+        String[] replaced = entries.put(key, partsOfSpeech);
+        if (replaced != null) bytes -= entryBytes(key, replaced);   // another thread dissected it meanwhile
+        bytes += entryBytes;
+
+        Iterator<Map.Entry<Key, String[]>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            Map.Entry<Key, String[]> entry = eldest.next();
+            bytes -= entryBytes(entry.getKey(), entry.getValue());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private static long entryBytes(Key key, String[] partsOfSpeech) {
+        // the parts of speech themselves are the model's own strings, shared by every entry
+        return entryOverheadBytes + 2L * key.text.length() + 4L * partsOfSpeech.length;
+    }
+
+    /**
+     * @return input with every character lowercased, one for one, as the vocabulary folds words
+     */
+    private static String fold(String input) {
+        char[] chars = input.toCharArray();
+        for (int i = 0; i < chars.length; i++) chars[i] = Character.toLowerCase(chars[i]);
+        return new String(chars);
+    }
+
+    private static final class Key {
+        final String text;
+        final DecodeOptions options;
+
+        Key(String text, DecodeOptions options) {
+            this.text = text;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return text.equals(other.text) && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * text.hashCode() + options.hashCode();
+        }
+    }
+}
@@ -3,12 +3,23 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
 
 public class Sudi {
     private final Map<String, Map<String, Double>> observationGraph;  // Observation -> (nextState -> log(p)) - observation scores
     private final Map<String, Map<String, Double>> transitionPOSGraph; // currState -> (nextState -> log(p)) - transition scores
     private static final String start = "#";    // start part of speech
     private static final double U = -50;    // missing part of speech
+    private static final int trainingChunkSize = 4096;  // sentences counted by one task in trainParallel
+
+    private volatile CompiledModel model;   // immutable form of the graphs used for decoding, compiled at the end of train
+    private volatile SentenceCache cache;   // dissected sentences, null if not caching
 
     /**
      * Constructor for hard-coding
@@ -27,12 +38,237 @@ public class Sudi {
         train(trainingSentencesFilePath, trainingTagsFilePath);
     }
 
+    /**
+     * Constructor for training Sudi on several threads
+     * @param numThreads number of threads counting chunks of the training files
+     */
+    public Sudi(String trainingSentencesFilePath, String trainingTagsFilePath, int numThreads) {
+        observationGraph = new HashMap<String, Map<String, Double>>();
+        transitionPOSGraph = new HashMap<>();
+        trainParallel(trainingSentencesFilePath, trainingTagsFilePath, numThreads);
+    }
+
+    /**
+     * Trains Sudi by memory-mapping the training files and counting words straight from their bytes, which
+     * suits corpora of several gigabytes. Gives exactly the same scores as the training constructor for files in
+     * the default charset, as long as it spells spaces and line ends in ASCII, as UTF-8 does.
+     */
+    public static Sudi trainMapped(String trainingSentencesFilePath, String trainingTagsFilePath) {
+        Sudi sudi = new Sudi();
+        TrainingCounts counts = new TrainingCounts(start);
+        try {
+            counts = MappedCorpus.count(trainingSentencesFilePath, trainingTagsFilePath, start);
+        }
+        catch (IOException e) {
+            System.err.println("Cannot read training files.\n" + e.getMessage());
+        }
+        sudi.compileCounts(counts);
+        return sudi;
+    }
+
+    /**
+     * Trains Sudi on lines already read, the i-th of tagLines tagging the i-th of sentences
+     */
+    static Sudi trainLines(List<String> sentences, List<String> tagLines) {
+        Sudi sudi = new Sudi();
+        TrainingCounts counts = new TrainingCounts(start);
+        for (int i = 0; i < sentences.size() && i < tagLines.size(); i++) {
+            // stop at the first pair of lines that do not match, like train
+            if (!counts.countSentence(tagLines.get(i), sentences.get(i))) break;
+        }
+        sudi.compileCounts(counts);
+        return sudi;
+    }
+
+    /**
+     * Constructor for loading a model written by saveModel, without retraining
+     */
+    public Sudi(String modelFilePath) {
+        observationGraph = new HashMap<String, Map<String, Double>>();
+        transitionPOSGraph = new HashMap<>();
+        try {
+            model = CompiledModel.load(modelFilePath);
+        }
+        catch (IOException e) {
+            System.err.println("Cannot load model.\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Constructor for decoding with a model that has already been compiled, trained or loaded
+     */
+    public Sudi(CompiledModel model) {
+        observationGraph = new HashMap<String, Map<String, Double>>();
+        transitionPOSGraph = new HashMap<>();
+        this.model = model;
+    }
+
+    /**
+     * Writes the trained model to a binary file, which the model file constructor can load back
+     */
+    public void saveModel(String modelFilePath) {
+        try {
+            model.save(modelFilePath);
+        }
+        catch (IOException e) {
+            System.err.println("Cannot save model.\n" + e.getMessage());
+        }
+    }
+
     /**
      * Takes a sentence separated by spaces and returns a list of parts of speech corresponding to each word.
      * @param input string to be interpreted
      * @return ordered list of parts of speech corresponding to each word in input
      */
     public String[] dissect(String input) {
+        return dissect(input, DecodeOptions.exact());
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns a list of parts of speech corresponding to each word.
+     * @param input string to be interpreted
+     * @param options how to decode, such as with a beam
+     * @return ordered list of parts of speech corresponding to each word in input
+     */
+    public String[] dissect(String input, DecodeOptions options) {
+        SentenceCache cache = this.cache;
+        if (cache != null) return cache.dissect(model, input, options);
+        return model.dissect(input, options);
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns its k most likely taggings, best first.
+     * @param input string to be interpreted
+     * @param k number of taggings to return
+     * @return the taggings with their log probabilities, the first being the one dissect returns
+     */
+    public List<TagSequence> dissectKBest(String input, int k) {
+        return model.dissectKBest(input, k);
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns the probability of every part of speech for each word.
+     * @param input string to be interpreted
+     * @return the posterior distribution of each word, or null if there is no path through the sentence
+     */
+    public Posteriors posteriors(String input) {
+        return model.posteriors(input);
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns the most probable part of speech of each word, with its
+     * probability.
+     * @param input string to be interpreted
+     * @return the parts of speech and their probabilities, or null if there is no path through the sentence
+     */
+    public TagMarginals dissectWithMarginals(String input) {
+        return model.dissectWithMarginals(input);
+    }
+
+    /**
+     * @return the compiled model dissect decodes with, which can be shared freely between threads
+     */
+    public CompiledModel getModel() {
+        return model;
+    }
+
+    /**
+     * Replaces the model dissect decodes with, such as with a retrained or reloaded one, and empties the sentence
+     * cache. Safe to call while other threads dissect; they finish with whichever model they started with.
+     * The trained graphs are left as they are.
+     */
+    public void setModel(CompiledModel model) {
+        this.model = model;
+        SentenceCache cache = this.cache;
+        if (cache != null) cache.invalidate(model);
+    }
+
+    /**
+     * Puts a cache of whole sentences in front of dissect, emptying it first, or takes the cache away if null.
+     * A cache must only be used by one Sudi at a time.
+     */
+    public void setSentenceCache(SentenceCache cache) {
+        if (cache != null) cache.invalidate(model);
+        this.cache = cache;
+    }
+
+    /**
+     * @return the cache in front of dissect, with its hit, miss and eviction counts, or null if not caching
+     */
+    public SentenceCache getSentenceCache() {
+        return cache;
+    }
+
+    /**
+     * Dissects every sentence in parallel on the common fork/join pool.
+     * @param inputs sentences to be interpreted
+     * @return the parts of speech of each sentence, in the same order as inputs
+     */
+    public List<String[]> tagAll(List<String> inputs) {
+        return tagAll(inputs, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Dissects every sentence in parallel on the given pool.
+     * @param inputs sentences to be interpreted
+     * @param pool pool to run on, its parallelism sets the number of threads used
+     * @return the parts of speech of each sentence, in the same order as inputs
+     */
+    public List<String[]> tagAll(List<String> inputs, ForkJoinPool pool) {
+        String[][] rPartsOfSpeech = new String[inputs.size()][];
+        pool.invoke(new TagTask(inputs, rPartsOfSpeech, 0, inputs.size()));
+        return Arrays.asList(rPartsOfSpeech);
+    }
+
+    /**
+     * Dissects a stream of sentences, in parallel if the stream is parallel.
+     * @param inputs sentences to be interpreted
+     * @return the parts of speech of each sentence, in the encounter order of inputs
+     */
+    public Stream<String[]> tagStream(Stream<String> inputs) {
+        return inputs.map(this::dissect);
+    }
+
+    /**
+     * Fork/join task dissecting inputs[from, to) into rPartsOfSpeech[from, to), splitting in half until a
+     * range is small enough to run on one thread. Each worker thread decodes with its own workspace.
+     */
+    private class TagTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int batchSize = 64;   // sentences dissected per task without splitting further
+
+        private final List<String> inputs;
+        private final String[][] rPartsOfSpeech;
+        private final int from, to;
+
+        TagTask(List<String> inputs, String[][] rPartsOfSpeech, int from, int to) {
+            this.inputs = inputs;
+            this.rPartsOfSpeech = rPartsOfSpeech;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                for (int i = from; i < to; i++) {
+                    rPartsOfSpeech[i] = dissect(inputs.get(i));
+                }
+            }
+            else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TagTask(inputs, rPartsOfSpeech, from, middle),
+                        new TagTask(inputs, rPartsOfSpeech, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Original map-based version of dissect, kept as a reference for the dense decoder.
+     * @param input string to be interpreted
+     * @return ordered list of parts of speech corresponding to each word in input
+     */
+    String[] dissectGraphs(String input) {
         String[] words = input.split(" ");
 
         List<Map<String, String>> backtrace = new ArrayList<>();
@@ -109,61 +345,12 @@ public class Sudi {
      */
     private void train(String trainingSentencesFilePath, String trainingTagsFilePath) {
 
-        // First, count the number of parts of speech and sentence starts that appear in trainingTagsFilePath.
+        // Read the files once, in lockstep. For every sentence, count its parts of speech and its start, and
+        // update transitionPOSGraph so it takes the form: currPOS -> (possible next POS -> total count of transition).
+        // Also, simultaneously update observationPOSGraph so it takes the form: observation -> (possible POS -> total count of possibility).
         Map<String, Integer> partOfSpeechCount = new HashMap<>();
 
-        BufferedReader input1 = null;   // file to read: trainingTagsFilePath
-
-        // Open the file
-        try {
-            input1 = new BufferedReader(new FileReader(trainingTagsFilePath));
-        }
-        catch(FileNotFoundException e) {    // If cannot open, return empty map
-            System.err.println("Cannot open file.\n" + e.getMessage());
-        }
-
-        // Read the file
-        try {
-            // add start to part of speech count
-            partOfSpeechCount.put(start, 0);
-
-            String line = input1.readLine();
-            while (line != null) {
-                // given each line is a sentence, increment start whenever a new line is read
-                partOfSpeechCount.put(start, partOfSpeechCount.get(start) + 1);
-
-                // increment parts of speech by how many times each appears in line, adding the part of speech
-                // if it is not yet added to the parts of speech counter
-                String[] partsOfSpeechInLine= line.split(" ");
-                for (String POS : partsOfSpeechInLine) {
-                    if (!partOfSpeechCount.containsKey(POS)) {
-                        partOfSpeechCount.put(POS, 1);
-                    }
-                    else partOfSpeechCount.put(POS, partOfSpeechCount.get(POS) + 1);
-                }
-
-                line = input1.readLine();        // read next line
-            }
-        }
-
-        catch (IOException e) {
-            System.out.println("IO error while reading.\n" + e.getMessage());
-        }
-
-        // Close the file, if possible
-        try {
-            input1.close();
-        }
-        catch (IOException e) {
-            System.err.println("Cannot close file.\n" + e.getMessage());
-        }
-
-
-
-
-        // Second, update transitionPOSGraph so it takes the form: currPOS -> (possible next POS -> total count of transition).
-        // Also, simultaneously update observationPOSGraph so it takes the form: observation -> (possible POS -> total count of possibility).
-        BufferedReader tags = null;   // file to read: trainingTagsFilePath (again)
+        BufferedReader tags = null;   // file to read: trainingTagsFilePath
         BufferedReader obs = null;    // file to read: trainingSentencesFilePath
 
         // Open tags
@@ -187,33 +374,38 @@ public class Sudi {
             String tagsLine = tags.readLine();
             String obsLine = obs.readLine();
 
-            // add start to the transitions graph
+            // add start to the transitions graph and part of speech count
             transitionPOSGraph.put(start, new HashMap<String, Double>());
+            partOfSpeechCount.put(start, 0);
+
+            Tokenizer partsOfSpeechInLine = new Tokenizer();
+            Tokenizer observationsInLine = new Tokenizer();
 
             // loop through the entire files
             while (tagsLine != null && obsLine != null) {
-                String[] partsOfSpeechInLine = tagsLine.split(" ");
-                String[] observationsInLine = obsLine.split(" ");
+                partsOfSpeechInLine.split(tagsLine);
+                observationsInLine.split(obsLine);
 
                 // if the sentences do not have the same number of words:
-                if (partsOfSpeechInLine.length != observationsInLine.length) {
+                if (partsOfSpeechInLine.size() != observationsInLine.size()) {
                     System.err.println("training files not same format!");
                     break;
                 }
 
+                // given each line is a sentence, increment start whenever a new line is read
+                partOfSpeechCount.put(start, partOfSpeechCount.get(start) + 1);
+
                 // run through every part of speech in the sentence
-                for (int i = 0; i < partsOfSpeechInLine.length; i++) {
-                    String currPOS = partsOfSpeechInLine[i];    // part of speech at loc i
-                    String currObs = observationsInLine[i];     // word at loc i
-                    String prevPOS;                             // part of speech at loc i-1
-
-                    // handle the case at i=0 where the transition is from start to the first word.
-                    if (i == 0) {
-                        prevPOS = start;
-                    }
-                    else {
-                        prevPOS = partsOfSpeechInLine[i-1];
+                String prevPOS = start;     // part of speech at loc i-1, start for the transition to the first word
+                for (int i = 0; i < partsOfSpeechInLine.size(); i++) {
+                    String currPOS = partsOfSpeechInLine.toString(i);   // part of speech at loc i
+                    String currObs = observationsInLine.toString(i);    // word at loc i
+
+                    // increment the count of currPOS, adding it if it is not yet in the parts of speech counter
+                    if (!partOfSpeechCount.containsKey(currPOS)) {
+                        partOfSpeechCount.put(currPOS, 1);
                     }
+                    else partOfSpeechCount.put(currPOS, partOfSpeechCount.get(currPOS) + 1);
 
                     // Add currPOS and currObs to both graphs if not there yet
                     if (!transitionPOSGraph.containsKey(currPOS)) {
@@ -236,6 +428,8 @@ public class Sudi {
                     }
                     // Else initialize the existence of the possible part of speech for the observation
                     else observationGraph.get(currObs).put(currPOS, 1.0);
+
+                    prevPOS = currPOS;
                 }
 
                 tagsLine = tags.readLine();        // read next line
@@ -265,7 +459,122 @@ public class Sudi {
 
 
 
-        // Thirdly, and lastly, generate the probabilities (normalize the counts)
+        compileGraphs(partOfSpeechCount);
+    }
+
+    /**
+     * Method called directly from the constructor to train Sudi based on sentences and tags files, on numThreads
+     * threads. The files are read in lockstep on the calling thread and cut into chunks of sentences, each chunk is
+     * counted into primitive tables on a worker thread, and the chunks' counts are merged in file order.
+     * Gives exactly the same scores as train.
+     */
+    private void trainParallel(String trainingSentencesFilePath, String trainingTagsFilePath, int numThreads) {
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        Deque<Future<TrainingCounts>> chunks = new ArrayDeque<>();  // chunks being counted, in file order
+        TrainingCounts counts = new TrainingCounts(start);          // merged counts of every chunk counted so far
+
+        // Open both files
+        try (BufferedReader tags = new BufferedReader(new FileReader(trainingTagsFilePath));
+             BufferedReader obs = new BufferedReader(new FileReader(trainingSentencesFilePath))) {
+            String tagsLine = tags.readLine();
+            String obsLine = obs.readLine();
+
+            // loop through the entire files, a chunk at a time
+            while (tagsLine != null && obsLine != null && !counts.isMismatched()) {
+                List<String> tagsLines = new ArrayList<>(trainingChunkSize);
+                List<String> obsLines = new ArrayList<>(trainingChunkSize);
+                while (tagsLine != null && obsLine != null && tagsLines.size() < trainingChunkSize) {
+                    tagsLines.add(tagsLine);
+                    obsLines.add(obsLine);
+                    tagsLine = tags.readLine();        // read next line
+                    obsLine = obs.readLine();
+                }
+
+                chunks.add(workers.submit(() -> {
+                    TrainingCounts chunkCounts = new TrainingCounts(start);
+                    for (int i = 0; i < tagsLines.size(); i++) {
+                        // stop at the first pair of lines that do not match, like train
+                        if (!chunkCounts.countSentence(tagsLines.get(i), obsLines.get(i))) break;
+                    }
+                    return chunkCounts;
+                }));
+
+                // keep a bounded number of chunks in memory by merging the oldest once enough are queued
+                if (chunks.size() >= 2 * numThreads) counts.merge(chunks.poll().get());
+            }
+
+            while (!chunks.isEmpty() && !counts.isMismatched()) {
+                counts.merge(chunks.poll().get());
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Cannot read training files.\n" + e.getMessage());
+        }
+        catch (InterruptedException | ExecutionException e) {
+            System.err.println("Training interrupted.\n" + e.getMessage());
+        }
+        finally {
+            workers.shutdownNow();
+        }
+
+        compileCounts(counts);
+    }
+
+    /**
+     * Fills the graphs from counts, normalizes them and compiles the model
+     */
+    private void compileCounts(TrainingCounts counts) {
+        if (counts.isMismatched()) System.err.println("training files not same format!");
+
+        Map<String, Integer> partOfSpeechCount = new HashMap<>();
+        counts.fillGraphs(transitionPOSGraph, observationGraph, partOfSpeechCount);
+        compileGraphs(partOfSpeechCount);
+    }
+
+    /**
+     * Normalizes the counts in the graphs and compiles the model, with a suffix trie learned from the rare words
+     * @param partOfSpeechCount part of speech -> number of times it was seen, sentences for start
+     */
+    private void compileGraphs(Map<String, Integer> partOfSpeechCount) {
+        Map<String, Integer> wordCounts = wordCounts();
+        Map<String, Map<String, Double>> rareWordCounts = rareWordCounts(wordCounts);
+        normalize(partOfSpeechCount);
+        model = CompiledModel.compile(transitionPOSGraph, observationGraph, start, U, rareWordCounts, partOfSpeechCount,
+                wordCounts);
+    }
+
+    /**
+     * @return observation -> number of times it was seen, summed over its counts in observationGraph
+     */
+    private Map<String, Integer> wordCounts() {
+        Map<String, Integer> wordCounts = new HashMap<>();
+        for (String currObs : observationGraph.keySet()) {
+            double total = 0;
+            for (double count : observationGraph.get(currObs).values()) total += count;
+            wordCounts.put(currObs, (int) total);
+        }
+        return wordCounts;
+    }
+
+    /**
+     * @param wordCounts observation -> number of times it was seen
+     * @return copies of the counts in observationGraph of the words seen at most SuffixTrie.maxRareCount times,
+     * which the suffix trie learns how unknown words end from
+     */
+    private Map<String, Map<String, Double>> rareWordCounts(Map<String, Integer> wordCounts) {
+        Map<String, Map<String, Double>> rareWordCounts = new HashMap<>();
+        for (String currObs : observationGraph.keySet()) {
+            if (wordCounts.get(currObs) <= SuffixTrie.maxRareCount) rareWordCounts.put(currObs, new HashMap<>(observationGraph.get(currObs)));
+        }
+        return rareWordCounts;
+    }
+
+    /**
+     * Replaces the counts in transitionPOSGraph and observationGraph with log probabilities
+     * @param partOfSpeechCount part of speech -> number of times it was seen, sentences for start
+     */
+    private void normalize(Map<String, Integer> partOfSpeechCount) {
+        // generate the probabilities (normalize the counts)
         // And take the natural log of them (to prevent probabilities from getting too small later)
 
         // for each part of speech to transition from in transitionPOSGraph
@@ -294,21 +603,35 @@ public class Sudi {
         }
     }
 
+    /**
+     * @return the trained transition scores, currState -> (nextState -> log(p))
+     */
+    Map<String, Map<String, Double>> getTransitionPOSGraph() {
+        return transitionPOSGraph;
+    }
+
+    /**
+     * @return the trained observation scores, observation -> (part of speech -> log(p))
+     */
+    Map<String, Map<String, Double>> getObservationGraph() {
+        return observationGraph;
+    }
+
     /**
      * Static method to take the array generated in dissect and make it easier to read when associated
      * with the current sentence in the console
      * @param partsOfSpeech dissected originalSentence
      */
     private static void printLabeledSentence(String originalSentence, String[] partsOfSpeech) {
-        String[] originalWords = originalSentence.split(" ");
+        Tokenizer originalWords = new Tokenizer().split(originalSentence);
         // Only label if there is a part of speech for each word in the original sentence
-        if (originalWords.length != partsOfSpeech.length) System.out.println("Unable to label!");
+        if (originalWords.size() != partsOfSpeech.length) System.out.println("Unable to label!");
         else {
-            String output = "";
+            StringBuilder output = new StringBuilder();
 
             // construct output string with format: wor0(part of speech) word1(part of speech)...
-            for (int i = 0; i < originalWords.length; i++) {
-                output += originalWords[i] + "(" + partsOfSpeech[i] + ") ";
+            for (int i = 0; i < originalWords.size(); i++) {
+                originalWords.appendTo(output, i).append('(').append(partsOfSpeech[i]).append(") ");
             }
 
             System.out.println(output);
@@ -340,6 +663,8 @@ public class Sudi {
 
         BufferedReader tags = null;   // file to read: testingTagsFilePath (again)
         BufferedReader obs = null;    // file to read: testingSentencesFilePath
+        List<String> tagsLines = new ArrayList<>();   // every line of tags
+        List<String> obsLines = new ArrayList<>();    // every line of obs
 
         // Open tags
         try {
@@ -364,23 +689,8 @@ public class Sudi {
 
             // loop through the entire files
             while (tagsLine != null && obsLine != null) {
-                // for each part of speech in the list
-                String[] guessedPartsOfSpeechInLine = dissect(obsLine);
-                String[] partsOfSpeechInLine = tagsLine.split(" ");;
-
-                // Ensure files are in valid format
-                if (partsOfSpeechInLine.length != guessedPartsOfSpeechInLine.length) {
-                    System.err.println("test files not same format!");
-                    break;
-                }
-
-                // for each word in the line
-                for (int i=0; i < partsOfSpeechInLine.length; i++) {
-                    // increment total number of tests by 1
-                    numTotal++;
-                    // if part of speech matches the guessed part of speech, increment correct by 1
-                    if (guessedPartsOfSpeechInLine[i].equals(partsOfSpeechInLine[i])) numCorrect++;
-                }
+                tagsLines.add(tagsLine);
+                obsLines.add(obsLine);
 
                 tagsLine = tags.readLine();        // read next line
                 obsLine = obs.readLine();
@@ -407,13 +717,36 @@ public class Sudi {
             System.err.println("Cannot close file.\n" + e.getMessage());
         }
 
+        // tag every sentence in parallel, then compare line by line
+        List<String[]> guessedPartsOfSpeech = tagAll(obsLines);
+        Tokenizer partsOfSpeechInLine = new Tokenizer();
+        for (int line = 0; line < tagsLines.size(); line++) {
+            // for each part of speech in the list
+            String[] guessedPartsOfSpeechInLine = guessedPartsOfSpeech.get(line);
+            partsOfSpeechInLine.split(tagsLines.get(line));
+
+            // Ensure files are in valid format
+            if (partsOfSpeechInLine.size() != guessedPartsOfSpeechInLine.length) {
+                System.err.println("test files not same format!");
+                break;
+            }
+
+            // for each word in the line
+            for (int i=0; i < partsOfSpeechInLine.size(); i++) {
+                // increment total number of tests by 1
+                numTotal++;
+                // if part of speech matches the guessed part of speech, increment correct by 1
+                if (partsOfSpeechInLine.matches(i, guessedPartsOfSpeechInLine[i])) numCorrect++;
+            }
+        }
+
         // PRINT RESULTS!:
         System.out.println(numCorrect + " parts of speech correct out of " + numTotal + " total.");
     }
 
     public static void main(String[] args) {
         // create and train Sudi
-        v = new Sudi("brown-train-sentences.txt", "brown-train-tags.txt");
+        Sudi v = new Sudi("brown-train-sentences.txt", "brown-train-tags.txt");
         // see how Sudi did
         v.printCorrectness("brown-test-sentences.txt", "brown-test-tags.txt");
         // allow user to test
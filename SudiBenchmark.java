@@ -0,0 +1,824 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmark suite for Sudi, covering training, decoding, batch tagging and model loading on the Brown files.
+ * Every benchmark is warmed up, then reports time per operation, throughput, bytes allocated per operation and
+ * garbage collection activity, and decoders are checked against each other along the way.
+ * Run with no arguments for every section, or name the sections to run: decode, model, train, batch, kernel, precision,
+ * online, long, kbest, posterior, trigram, suffix, cache, hot, tokenize, mapped, options.
+ * The kernel section compares the vector kernel only when the vector/ source root is compiled and the benchmark is
+ * run with --add-modules jdk.incubator.vector.
+ */
+public class SudiBenchmark {
+    private static final String trainSentences = "brown-train-sentences.txt";
+    private static final String trainTags = "brown-train-tags.txt";
+    private static final String testSentences = "brown-test-sentences.txt";
+    private static final String testTags = "brown-test-tags.txt";
+
+    private static final int warmupRounds = 3;
+    private static final int measuredRounds = 5;
+
+    /**
+     * A decoder to be timed: takes a sentence and returns its parts of speech
+     */
+    private interface Decoder {
+        String[] decode(String sentence);
+    }
+
+    /**
+     * Reads every line of a file into a list
+     */
+    static List<String> readLines(String filePath) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new FileReader(filePath))) {
+            String line = input.readLine();
+            while (line != null) {
+                lines.add(line);
+                line = input.readLine();
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Decodes every sentence, and prints time and allocation per sentence
+     * @return the average nanoseconds taken to decode all sentences once
+     */
+    private static double time(String name, List<String> sentences, Decoder decoder) {
+        return measure(name, sentences.size(), countWords(sentences), warmupRounds, measuredRounds, () -> {
+            for (String sentence : sentences) decoder.decode(sentence);
+        });
+    }
+
+    /**
+     * Runs round, which tags numWords words, and prints time and allocation per round
+     * @return the average nanoseconds taken by one round
+     */
+    private static double time(String name, int numWords, Runnable round) {
+        return measure(name, 1, numWords, warmupRounds, measuredRounds, round);
+    }
+
+    /**
+     * Runs task, which tags nothing, and prints time and allocation per run
+     */
+    private static void timeOnce(String name, Runnable task) {
+        measure(name, 1, 0, warmupRounds, measuredRounds, task);
+    }
+
+    /**
+     * Trains on the given files a few times and prints the training throughput
+     */
+    private static void timeTraining(String name, String sentencesFilePath, String tagsFilePath) throws IOException {
+        timeTraining(name, sentencesFilePath, tagsFilePath, () -> new Sudi(sentencesFilePath, tagsFilePath));
+    }
+
+    /**
+     * Runs a trainer on the given files a few times and prints the training throughput
+     */
+    private static void timeTraining(String name, String sentencesFilePath, String tagsFilePath, Runnable trainer) throws IOException {
+        measure(name, 1, countWords(readLines(sentencesFilePath)), 1, 3, trainer);
+    }
+
+    /**
+     * Runs round warmup times, then measured times, and prints for the measured rounds:
+     * the average time per operation, words tagged per second, bytes allocated per operation by all threads,
+     * and the number of garbage collections and time spent in them.
+     * @param opsPerRound operations (such as sentences) performed by one round
+     * @param wordsPerRound words tagged by one round, 0 to leave out words per second
+     * @return the average nanoseconds taken by one round
+     */
+    private static double measure(String name, int opsPerRound, int wordsPerRound, int warmup, int measured, Runnable round) {
+        for (int i = 0; i < warmup; i++) round.run();
+
+        long collectionsBefore = collections();
+        long collectionMillisBefore = collectionMillis();
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < measured; i++) round.run();
+        double nanosPerRound = (double) (System.nanoTime() - begin) / measured;
+        double allocatedPerOp = (double) (allocatedBytes() - allocatedBefore) / measured / opsPerRound;
+
+        String wordsPerSecond = wordsPerRound == 0 ? "" : String.format("%.0f words/s", wordsPerRound / (nanosPerRound / 1e9));
+        System.out.printf("%-36s %12.3f us/op %20s %12.0f B/op %5d GCs %6d ms GC%n",
+                name, nanosPerRound / 1e3 / opsPerRound, wordsPerSecond, allocatedPerOp,
+                collections() - collectionsBefore, collectionMillis() - collectionMillisBefore);
+        return nanosPerRound;
+    }
+
+    /**
+     * @return bytes allocated so far by every live thread
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) total += allocated;
+        }
+        return total;
+    }
+
+    /**
+     * @return garbage collections so far, over all collectors
+     */
+    private static long collections() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionCount());
+        }
+        return total;
+    }
+
+    /**
+     * @return milliseconds spent in garbage collection so far, over all collectors
+     */
+    private static long collectionMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Random inputs for a run of max-plus steps, with about a tenth of the states unreachable and a third of the
+     * transitions never seen, as in a trained model
+     */
+    private static class KernelSteps {
+        final int numTags;
+        final int numSteps;
+        final double[] transitionMatrix;
+        final double[][] currScores;
+        final double[][] observationScores;
+        final double[] nextScores;
+        final int[] backpointers;
+        final double[] scratch;
+
+        KernelSteps(int numTags, int numSteps, Random random) {
+            this.numTags = numTags;
+            this.numSteps = numSteps;
+            transitionMatrix = new double[numTags * numTags];
+            for (int k = 0; k < transitionMatrix.length; k++) {
+                transitionMatrix[k] = random.nextInt(3) == 0 ? Double.NEGATIVE_INFINITY : -10 * random.nextDouble();
+            }
+            currScores = new double[numSteps][numTags];
+            observationScores = new double[numSteps][numTags];
+            for (int i = 0; i < numSteps; i++) {
+                for (int id = 0; id < numTags; id++) {
+                    currScores[i][id] = random.nextInt(10) == 0 ? Double.NEGATIVE_INFINITY : -100 * random.nextDouble();
+                    observationScores[i][id] = random.nextInt(2) == 0 ? -50 : -10 * random.nextDouble();
+                }
+            }
+            nextScores = new double[numTags];
+            backpointers = new int[numSteps * numTags];
+            scratch = new double[numTags];
+        }
+
+        void run(MaxPlusKernel kernel) {
+            for (int i = 0; i < numSteps; i++) {
+                kernel.step(currScores[i], transitionMatrix, observationScores[i], numTags, nextScores, backpointers, i * numTags, scratch);
+            }
+        }
+
+        /**
+         * @return every score and every backpointer of a reachable state, as text to compare between kernels
+         */
+        String check(MaxPlusKernel kernel) {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < numSteps; i++) {
+                kernel.step(currScores[i], transitionMatrix, observationScores[i], numTags, nextScores, backpointers, i * numTags, scratch);
+                for (int id = 0; id < numTags; id++) {
+                    result.append(nextScores[id]).append(' ');
+                    if (nextScores[id] != Double.NEGATIVE_INFINITY) result.append(backpointers[i * numTags + id]).append(' ');
+                }
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * @return the sentences with between minWords and maxWords words, inclusive
+     */
+    private static List<String> withLength(List<String> sentences, int minWords, int maxWords) {
+        List<String> matching = new ArrayList<>();
+        for (String sentence : sentences) {
+            int numWords = sentence.split(" ").length;
+            if (numWords >= minWords && numWords <= maxWords) matching.add(sentence);
+        }
+        return matching;
+    }
+
+    /**
+     * Writes copies of the lines of a file, one after another, to a temporary file
+     * @return path of the temporary file
+     */
+    private static String repeatFile(String filePath, int copies) throws IOException {
+        File repeated = File.createTempFile("sudi", ".txt");
+        repeated.deleteOnExit();
+        List<String> lines = readLines(filePath);
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(repeated)))) {
+            for (int i = 0; i < copies; i++) {
+                for (String line : lines) out.println(line);
+            }
+        }
+        return repeated.getPath();
+    }
+
+    /**
+     * @return the total number of words in sentences
+     */
+    private static int countWords(List<String> sentences) {
+        int numWords = 0;
+        for (String sentence : sentences) numWords += sentence.split(" ").length;
+        return numWords;
+    }
+
+    /**
+     * Checks that two decoders return the same parts of speech for every sentence
+     */
+    private static void checkSame(String name, List<String> sentences, Decoder expected, Decoder actual) {
+        int mismatches = 0;
+        for (String sentence : sentences) {
+            if (!Arrays.equals(expected.decode(sentence), actual.decode(sentence))) mismatches++;
+        }
+        System.out.println(name + ": " + mismatches + " of " + sentences.size() + " sentences differ");
+    }
+
+    /**
+     * @return the fraction of words in sentences that decoder tags the same as tagLines
+     */
+    private static double accuracy(List<String> sentences, List<String> tagLines, Decoder decoder) {
+        int numCorrect = 0;
+        int numTotal = 0;
+        for (int line = 0; line < sentences.size(); line++) {
+            String[] guessed = decoder.decode(sentences.get(line));
+            String[] expected = tagLines.get(line).split(" ");
+            for (int i = 0; i < expected.length; i++) {
+                numTotal++;
+                if (expected[i].equals(guessed[i])) numCorrect++;
+            }
+        }
+        return (double) numCorrect / numTotal;
+    }
+
+    /**
+     * Rough estimate of the heap held by a map of maps of boxed doubles on a 64-bit JVM with compressed oops:
+     * a 48 byte HashMap plus its table, a 32 byte node per entry and a 16 byte Double per score.
+     * Keys are counted as Strings of 24 byte header plus a byte array of their characters.
+     */
+    private static long estimateGraphBytes(Map<String, Map<String, Double>> graph) {
+        long bytes = mapBytes(graph);
+        for (Map.Entry<String, Map<String, Double>> entry : graph.entrySet()) {
+            bytes += 24 + 16 + entry.getKey().length();
+            bytes += mapBytes(entry.getValue()) + 16L * entry.getValue().size();
+        }
+        return bytes;
+    }
+
+    private static long mapBytes(Map<?, ?> map) {
+        long tableSlots = Integer.highestOneBit(Math.max(1, (int) (map.size() / 0.75f)) * 2 - 1);
+        return 48 + 16 + 4 * tableSlots + 32L * map.size();
+    }
+
+    /**
+     * Runs every section of the benchmark, or only the sections named in args: decode, model, train, batch, kernel,
+     * precision, online, long, kbest, posterior, trigram, suffix, cache, hot, tokenize, mapped, options
+     */
+    public static void main(String[] args) throws IOException {
+        Set<String> sections = new HashSet<>(Arrays.asList(args));
+        Sudi sudi = new Sudi(trainSentences, trainTags);
+        List<String> sentences = readLines(testSentences);
+
+        if (sections.isEmpty() || sections.contains("decode")) {
+            System.out.printf("emission footprint: %d KB compiled vs ~%d KB observationGraph%n",
+                    sudi.getModel().emissionFootprintBytes() / 1024, estimateGraphBytes(sudi.getObservationGraph()) / 1024);
+            checkSame("dense dissect", sentences, sudi::dissectGraphs, sudi::dissect);
+
+            double graphs = time("dissectGraphs", sentences, sudi::dissectGraphs);
+            double dense = time("dissect", sentences, sudi::dissect);
+            System.out.printf("dense speedup: %.2fx%n", graphs / dense);
+
+            // decode into a reused workspace and tag id buffer, with the sentences split up front
+            Map<String, String[]> split = new HashMap<>();
+            for (String sentence : sentences) split.put(sentence, sentence.split(" "));
+            ViterbiWorkspace workspace = new ViterbiWorkspace();
+            int[] tagIds = new int[1024];
+            Decoder reused = sentence -> {
+                sudi.getModel().decode(split.get(sentence), workspace, tagIds);
+                return null;
+            };
+            time("decode (workspace)", sentences, reused);
+
+            // sentences of different lengths
+            time("dissect (1-10 words)", withLength(sentences, 1, 10), sudi::dissect);
+            time("dissect (11-30 words)", withLength(sentences, 11, 30), sudi::dissect);
+            time("dissect (31+ words)", withLength(sentences, 31, Integer.MAX_VALUE), sudi::dissect);
+        }
+
+        if (sections.isEmpty() || sections.contains("model")) {
+            // model file: save, check it decodes the same, then time loading it against retraining and against
+            // Java serialization of the trained graphs
+            File modelFile = File.createTempFile("sudi", ".model");
+            File graphsFile = File.createTempFile("sudi", ".ser");
+            modelFile.deleteOnExit();
+            graphsFile.deleteOnExit();
+            sudi.saveModel(modelFile.getPath());
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(graphsFile)))) {
+                out.writeObject(new HashMap<>(sudi.getTransitionPOSGraph()));
+                out.writeObject(new HashMap<>(sudi.getObservationGraph()));
+            }
+            Sudi loaded = new Sudi(modelFile.getPath());
+            checkSame("loaded model", sentences, sudi::dissect, loaded::dissect);
+            Sudi mapped = new Sudi(CompiledModel.map(modelFile.getPath(), true));
+            checkSame("mapped model", sentences, sudi::dissect, mapped::dissect);
+            time("dissect (mapped)", sentences, mapped::dissect);
+            System.out.printf("model file %d KB, serialized graphs %d KB%n", modelFile.length() / 1024, graphsFile.length() / 1024);
+
+            timeOnce("retrain", () -> new Sudi(trainSentences, trainTags));
+            timeOnce("load model file", () -> new Sudi(modelFile.getPath()));
+            timeOnce("map model file", () -> {
+                try {
+                    CompiledModel.map(modelFile.getPath(), false);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            timeOnce("deserialize graphs", () -> {
+                try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(graphsFile)))) {
+                    in.readObject();
+                    in.readObject();
+                }
+                catch (IOException | ClassNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+        if (sections.isEmpty() || sections.contains("train")) {
+            // the parallel trainer must give the same model as the sequential one
+            File modelFile = File.createTempFile("sudi", ".model");
+            File parallelModelFile = File.createTempFile("sudi", ".model");
+            modelFile.deleteOnExit();
+            parallelModelFile.deleteOnExit();
+            sudi.saveModel(modelFile.getPath());
+            new Sudi(trainSentences, trainTags, 4).saveModel(parallelModelFile.getPath());
+            System.out.println("trainParallel model identical to train: "
+                    + Arrays.equals(Files.readAllBytes(modelFile.toPath()), Files.readAllBytes(parallelModelFile.toPath())));
+
+            // training throughput, on Brown and on a synthetic corpus of Brown repeated 10 times
+            timeTraining("train (Brown)", trainSentences, trainTags);
+            String largeSentences = repeatFile(trainSentences, 10);
+            String largeTags = repeatFile(trainTags, 10);
+            timeTraining("train (10x Brown)", largeSentences, largeTags);
+            for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+                int numThreads = threads;
+                timeTraining("trainParallel (" + threads + ")", largeSentences, largeTags,
+                        () -> new Sudi(largeSentences, largeTags, numThreads));
+            }
+        }
+
+        if (sections.isEmpty() || sections.contains("batch")) {
+            // tag the whole test set at once on pools of 1, 2, 4... threads
+            double oneThread = 0;
+            for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                double batch = time("tagAll (" + threads + " threads)", countWords(sentences), () -> sudi.tagAll(sentences, pool));
+                if (threads == 1) oneThread = batch;
+                System.out.printf("  %.2fx one thread%n", oneThread / batch);
+                pool.shutdown();
+            }
+        }
+
+        if (sections.isEmpty() || sections.contains("kernel")) {
+            // scalar against vector max-plus steps over random scores for a range of tagset sizes
+            MaxPlusKernel vector = MaxPlusKernel.vector();
+            if (vector == null) System.out.println("vector kernel not available, compile vector/ and run with --add-modules jdk.incubator.vector");
+            MaxPlusKernel[] kernels = vector == null ? new MaxPlusKernel[]{MaxPlusKernel.scalar()}
+                    : new MaxPlusKernel[]{MaxPlusKernel.scalar(), vector};
+            for (int numTags : new int[]{12, 45, 300}) {
+                KernelSteps steps = new KernelSteps(numTags, 64, new Random(numTags));
+                String expected = null;
+                for (MaxPlusKernel kernel : kernels) {
+                    if (expected == null) expected = steps.check(kernel);
+                    else if (!expected.equals(steps.check(kernel))) System.out.println(kernel + " MISMATCH at " + numTags + " tags");
+                    measure(String.format("%s step (%d tags)", kernel, numTags), steps.numSteps, 0,
+                            warmupRounds * 100, measuredRounds * 100, () -> steps.run(kernel));
+                }
+            }
+        }
+
+        if (sections.isEmpty() || sections.contains("precision")) {
+            // accuracy, throughput and emission table size for each precision of the emission scores, checking
+            // each round trips through a model file
+            List<String> tagLines = readLines(testTags);
+            File modelFile = File.createTempFile("sudi", ".model");
+            modelFile.deleteOnExit();
+            for (ScorePrecision precision : ScorePrecision.values()) {
+                CompiledModel model = sudi.getModel().withEmissionPrecision(precision);
+                model.save(modelFile.getPath());
+                checkSame(precision + " model file", sentences, model::dissect, CompiledModel.load(modelFile.getPath())::dissect);
+                checkSame(precision + " against DOUBLE", sentences, sudi::dissect, model::dissect);
+
+                double accuracy = accuracy(sentences, tagLines, model::dissect);
+                System.out.printf("%s: emission footprint %d KB, model file %d KB%n",
+                        precision, model.emissionFootprintBytes() / 1024, modelFile.length() / 1024);
+                time(String.format("dissect %s %.2f%%", precision, 100 * accuracy), sentences, model::dissect);
+            }
+        }
+
+        if (sections.isEmpty() || sections.contains("online")) {
+            // one sentence at a time, the online decoder must match dissect
+            List<String> tags = new ArrayList<>();
+            for (DecodeOptions options : new DecodeOptions[]{DecodeOptions.exact(), DecodeOptions.observedTagsOnly()}) {
+                OnlineDecoder online = new OnlineDecoder(sudi.getModel(), options, OnlineDecoder.unbounded, tags::add);
+                Decoder sentenceAtATime = sentence -> {
+                    tags.clear();
+                    for (String word : sentence.split(" ")) online.push(word);
+                    online.flush();
+                    return tags.toArray(new String[0]);
+                };
+                checkSame("online " + options, sentences, sentence -> sudi.dissect(sentence, options), sentenceAtATime);
+            }
+
+            // the whole test set as one stream with no sentence boundaries, ten times over so scores get rescaled
+            List<String> stream = new ArrayList<>();
+            List<String> streamTags = new ArrayList<>();
+            List<String> tagLines = readLines(testTags);
+            for (int copy = 0; copy < 10; copy++) {
+                for (String sentence : sentences) stream.addAll(Arrays.asList(sentence.split(" ")));
+                for (String tagLine : tagLines) streamTags.addAll(Arrays.asList(tagLine.split(" ")));
+            }
+            for (int maxLag : new int[]{OnlineDecoder.unbounded, OnlineDecoder.defaultMaxLag, 16, 4, 1}) {
+                String lag = maxLag == OnlineDecoder.unbounded ? "unbounded" : String.valueOf(maxLag);
+                int[] numCorrect = new int[1];
+                int maxPending = 0;
+                OnlineDecoder online = new OnlineDecoder(sudi.getModel(), DecodeOptions.exact(), maxLag, tag -> {});
+                long[] position = new long[1];
+                OnlineDecoder scored = new OnlineDecoder(sudi.getModel(), DecodeOptions.exact(), maxLag,
+                        tag -> { if (streamTags.get((int) position[0]++).equals(tag)) numCorrect[0]++; });
+                for (String word : stream) {
+                    scored.push(word);
+                    maxPending = Math.max(maxPending, scored.getPending());
+                }
+                scored.flush();
+                System.out.printf("stream of %d words, max lag %s: %.2f%% correct, at most %d words pending%n",
+                        stream.size(), lag, 100.0 * numCorrect[0] / stream.size(), maxPending);
+                time("push (max lag " + lag + ")", stream.size(), () -> {
+                    for (String word : stream) online.push(word);
+                    online.flush();
+                });
+            }
+
+            // a stream that reaches dead ends, from a model trained on sentences that always end in a verb, so
+            // nothing may follow a verb. The decoder must restart after every verb even though the words before
+            // it are already committed
+            File deadEndSentences = File.createTempFile("sudi", ".txt");
+            File deadEndTags = File.createTempFile("sudi", ".txt");
+            deadEndSentences.deleteOnExit();
+            deadEndTags.deleteOnExit();
+            Files.write(deadEndSentences.toPath(), Arrays.asList("the dog ran", "the cat sat"));
+            Files.write(deadEndTags.toPath(), Arrays.asList("DET N V", "DET N V"));
+            CompiledModel deadEnd = new Sudi(deadEndSentences.getPath(), deadEndTags.getPath()).getModel();
+            for (DecodeOptions options : new DecodeOptions[]{DecodeOptions.exact(), DecodeOptions.observedTagsOnly()}) {
+                List<String> deadEndStream = new ArrayList<>();
+                List<String> expected = new ArrayList<>();
+                while (deadEndStream.size() < 5000) {
+                    deadEndStream.addAll(Arrays.asList("the", "dog", "ran"));
+                    expected.addAll(Arrays.asList("DET", "N", "V"));
+                }
+                for (int maxLag : new int[]{OnlineDecoder.unbounded, 2}) {
+                    List<String> streamed = new ArrayList<>();
+                    OnlineDecoder online = new OnlineDecoder(deadEnd, options, maxLag, streamed::add);
+                    int maxPending = 0;
+                    for (String word : deadEndStream) {
+                        online.push(word);
+                        maxPending = Math.max(maxPending, online.getPending());
+                    }
+                    online.flush();
+                    System.out.printf("dead-end stream of %d words, %s, max lag %s: %s, at most %d words pending%n",
+                            deadEndStream.size(), options, maxLag == OnlineDecoder.unbounded ? "unbounded" : maxLag,
+                            streamed.equals(expected) ? "restarts" : "MISMATCH", maxPending);
+                }
+            }
+        }
+
+        if (sections.isEmpty() || sections.contains("long")) {
+            // very long inputs with no punctuation, like OCR dumps: words of the test set drawn at random
+            List<String> testWords = new ArrayList<>();
+            for (String sentence : sentences) {
+                for (String word : sentence.split(" ")) {
+                    if (word.matches(".*[a-z0-9].*")) testWords.add(word);
+                }
+            }
+            Random random = new Random(17);
+            for (int numWords : new int[]{1000, 10000, 100000}) {
+                String[] words = new String[numWords];
+                for (int i = 0; i < numWords; i++) words[i] = testWords.get(random.nextInt(testWords.size()));
+
+                int[] plainTagIds = new int[numWords];
+                int[] checkpointedTagIds = new int[numWords];
+                for (DecodeOptions options : new DecodeOptions[]{DecodeOptions.exact(), DecodeOptions.checkpointed()}) {
+                    int[] tagIds = options.isCheckpointing() ? checkpointedTagIds : plainTagIds;
+                    ViterbiWorkspace workspace = new ViterbiWorkspace();
+                    sudi.getModel().decode(words, workspace, tagIds, options);
+                    System.out.printf("%s, %d words: workspace %d KB%n", options, numWords, workspace.footprintBytes() / 1024);
+                    // a new workspace every time, so bytes allocated are the memory a decode needs
+                    time(String.format("decode %s (%d words)", options, numWords), numWords,
+                            () -> sudi.getModel().decode(words, new ViterbiWorkspace(), tagIds, options));
+                }
+                System.out.println("checkpointed path " + (Arrays.equals(plainTagIds, checkpointedTagIds) ? "matches" : "DIFFERS"));
+            }
+        }
+
+        if (sections.isEmpty() || sections.contains("kbest")) {
+            // k best taggings against the single best
+            checkSame("k-best first", sentences, sudi::dissect, sentence -> sudi.dissectKBest(sentence, 5).get(0).getPartsOfSpeech());
+            double best = time("dissect", sentences, sudi::dissect);
+            for (int k : new int[]{1, 5, 20}) {
+                double kBest = time("dissectKBest (k = " + k + ")", sentences, sentence -> {
+                    sudi.dissectKBest(sentence, k);
+                    return null;
+                });
+                System.out.printf("  %.2fx dissect%n", kBest / best);
+            }
+        }
+
+        if (sections.isEmpty() || sections.contains("posterior")) {
+            // forward-backward: how its most probable tags compare with dissect's, whether low marginals pick out
+            // the words it gets wrong, and what it costs against dissect
+            List<String> tagLines = readLines(testTags);
+            checkSame("most probable tags against dissect", sentences, sudi::dissect,
+                    sentence -> sudi.dissectWithMarginals(sentence).getPartsOfSpeech());
+            double accuracy = accuracy(sentences, tagLines, sentence -> sudi.dissectWithMarginals(sentence).getPartsOfSpeech());
+            System.out.printf("most probable tags: %.2f%% correct%n", 100 * accuracy);
+
+            int numUnsure = 0;
+            int numUnsureCorrect = 0;
+            int numSure = 0;
+            int numSureCorrect = 0;
+            for (int line = 0; line < sentences.size(); line++) {
+                TagMarginals marginals = sudi.dissectWithMarginals(sentences.get(line));
+                String[] expected = tagLines.get(line).split(" ");
+                for (int i = 0; i < expected.length; i++) {
+                    boolean correct = expected[i].equals(marginals.getPartsOfSpeech()[i]);
+                    if (marginals.getMarginals()[i] < 0.9) {
+                        numUnsure++;
+                        if (correct) numUnsureCorrect++;
+                    }
+                    else {
+                        numSure++;
+                        if (correct) numSureCorrect++;
+                    }
+                }
+            }
+            System.out.printf("marginal >= 0.9: %d words, %.2f%% correct; marginal < 0.9: %d words, %.2f%% correct%n",
+                    numSure, 100.0 * numSureCorrect / numSure, numUnsure, 100.0 * numUnsureCorrect / numUnsure);
+
+            double best = time("dissect", sentences, sudi::dissect);
+            double top = time("dissectWithMarginals", sentences, sentence -> sudi.dissectWithMarginals(sentence).getPartsOfSpeech());
+            System.out.printf("  %.2fx dissect%n", top / best);
+            double full = time("posteriors", sentences, sentence -> {
+                sudi.posteriors(sentence);
+                return null;
+            });
+            System.out.printf("  %.2fx dissect%n", full / best);
+        }
+
+        if (sections.isEmpty() || sections.contains("trigram")) {
+            // second-order tagging against first-order, in accuracy and throughput: on the sentences held out of
+            // training to tune the trigram weight, then on the test sentences, without and with suffix guessing
+            List<String> tagLines = readLines(testTags);
+            long startTime = System.nanoTime();
+            TrigramModel trigram = TrigramModel.train(sudi.getModel(), trainSentences, trainTags);
+            double[] weights = trigram.getWeights();
+            double[] tuning = trigram.getTuningAccuracies();
+            System.out.printf("trigram training: %.1f ms, weights %.3f unigram, %.3f bigram, %.3f trigram%n",
+                    (System.nanoTime() - startTime) / 1e6, weights[0], weights[1], weights[2]);
+            System.out.printf("  held out: trigram weight 0 %.2f%%, trigram weight %.1f %.2f%%%n", 100 * tuning[0],
+                    weights[2], 100 * tuning[(int) Math.round(weights[2] * tuning.length)]);
+            TrigramModel bigramOnly = TrigramModel.train(sudi.getModel(), trainSentences, trainTags, new double[] {0, 1, 0});
+
+            for (DecodeOptions options : new DecodeOptions[] {DecodeOptions.exact(), DecodeOptions.suffixGuessing()}) {
+                DecodeOptions observed = options.withObservedTagsOnly(true);
+                checkSame(String.format("trigram weight 0 against bigram, %s", observed), sentences,
+                        sentence -> sudi.dissect(sentence, observed), sentence -> bigramOnly.dissect(sentence, options));
+                double bigramAccuracy = accuracy(sentences, tagLines, sentence -> sudi.dissect(sentence, options));
+                double observedAccuracy = accuracy(sentences, tagLines, sentence -> sudi.dissect(sentence, observed));
+                double trigramAccuracy = accuracy(sentences, tagLines, sentence -> trigram.dissect(sentence, options));
+                double bigram = time(String.format("bigram, %s %.2f%%", options, 100 * bigramAccuracy), sentences,
+                        sentence -> sudi.dissect(sentence, options));
+                time(String.format("bigram, %s %.2f%%", observed, 100 * observedAccuracy), sentences,
+                        sentence -> sudi.dissect(sentence, observed));
+                double trigramTime = time(String.format("trigram, %s %.2f%%", options, 100 * trigramAccuracy), sentences,
+                        sentence -> trigram.dissect(sentence, options));
+                System.out.printf("  %.2fx bigram%n", trigramTime / bigram);
+            }
+        }
+
+        if (sections.isEmpty() || sections.contains("suffix")) {
+            // unknown words scored by their suffixes against the flat unknown score: accuracy over every word and
+            // over unknown words alone, and the cost of scoring one unknown word
+            List<String> tagLines = readLines(testTags);
+            Set<String> known = sudi.getObservationGraph().keySet();
+            List<String> unknownWords = new ArrayList<>();
+            for (String sentence : sentences) {
+                for (String word : sentence.split(" ")) {
+                    if (!known.contains(word)) unknownWords.add(word);
+                }
+            }
+            System.out.printf("%d unknown words of %d, suffix trie and emissions %d KB%n", unknownWords.size(),
+                    countWords(sentences), sudi.getModel().emissionFootprintBytes() / 1024);
+
+            DecodeOptions[] suffixOptions = {
+                    DecodeOptions.exact(),
+                    DecodeOptions.suffixGuessing(),
+                    DecodeOptions.observedTagsOnly(),
+                    DecodeOptions.observedTagsOnly().withSuffixGuessing(true),
+            };
+            for (DecodeOptions options : suffixOptions) {
+                int numUnknown = 0;
+                int numUnknownCorrect = 0;
+                for (int line = 0; line < sentences.size(); line++) {
+                    String[] words = sentences.get(line).split(" ");
+                    String[] guessed = sudi.dissect(sentences.get(line), options);
+                    String[] expected = tagLines.get(line).split(" ");
+                    for (int i = 0; i < expected.length; i++) {
+                        if (known.contains(words[i])) continue;
+                        numUnknown++;
+                        if (expected[i].equals(guessed[i])) numUnknownCorrect++;
+                    }
+                }
+                double accuracy = accuracy(sentences, tagLines, sentence -> sudi.dissect(sentence, options));
+                time(String.format("%s %.2f%%, unknown %.2f%%", options, 100 * accuracy, 100.0 * numUnknownCorrect / numUnknown),
+                        sentences, sentence -> sudi.dissect(sentence, options));
+            }
+
+            double[] observationScores = new double[sudi.getModel().getNumTags()];
+            for (boolean guess : new boolean[]{false, true}) {
+                time(guess ? "score unknown words by suffix" : "score unknown words flat", unknownWords.size(), () -> {
+                    for (String word : unknownWords) sudi.getModel().scoreObservation(word, observationScores, guess);
+                });
+            }
+
+            File modelFile = File.createTempFile("sudi", ".model");
+            modelFile.deleteOnExit();
+            sudi.saveModel(modelFile.getPath());
+            Sudi loaded = new Sudi(modelFile.getPath());
+            checkSame("loaded model, suffix guessing", sentences, sentence -> sudi.dissect(sentence, DecodeOptions.suffixGuessing()),
+                    sentence -> loaded.dissect(sentence, DecodeOptions.suffixGuessing()));
+        }
+
+        if (sections.isEmpty() || sections.contains("cache")) {
+            // repetitive traffic: sentences drawn from a pool of test sentences with Zipf-like frequencies, some of
+            // them capitalized, tagged without a cache and through caches of several sizes
+            Random random = new Random(22);
+            List<String> traffic = new ArrayList<>();
+            for (int i = 0; i < 20000; i++) {
+                String sentence = sentences.get((int) Math.floor(Math.pow(sentences.size() + 1, random.nextDouble())) - 1);
+                traffic.add(random.nextInt(4) == 0 ? sentence.substring(0, 1).toUpperCase() + sentence.substring(1) : sentence);
+            }
+            double uncached = time("no cache", traffic, sudi::dissect);
+            for (int maxEntries : new int[]{100, 1000, 10000}) {
+                Sudi cached = new Sudi(sudi.getModel());
+                cached.setSentenceCache(new SentenceCache(maxEntries, Long.MAX_VALUE));
+                checkSame("cache of " + maxEntries, traffic, sudi::dissect, cached::dissect);
+                double time = time("cache of " + maxEntries, traffic, cached::dissect);
+                System.out.printf("  %.2fx no cache, %s%n", uncached / time, cached.getSentenceCache());
+            }
+
+            // a byte limit, shared by threads, and emptied when the model is replaced
+            Sudi cached = new Sudi(sudi.getModel());
+            cached.setSentenceCache(new SentenceCache(Integer.MAX_VALUE, 256 * 1024));
+            List<String[]> parallel = cached.tagAll(traffic);
+            int mismatches = 0;
+            for (int i = 0; i < traffic.size(); i++) {
+                if (!Arrays.equals(parallel.get(i), sudi.dissect(traffic.get(i)))) mismatches++;
+            }
+            System.out.printf("tagAll through a 256 KB cache: %d of %d sentences differ, %s%n", mismatches, traffic.size(),
+                    cached.getSentenceCache());
+            cached.setModel(sudi.getModel().withEmissionPrecision(ScorePrecision.FLOAT));
+            System.out.println("after setModel: " + cached.getSentenceCache());
+        }
+
+        if (sections.isEmpty() || sections.contains("hot")) {
+            // dense rows kept ready for the most frequent words: how many test words they cover, and what they save
+            CompiledModel model = sudi.getModel();
+            Sudi cold = new Sudi(model.withHotWords(0));
+            checkSame("hot rows against none", sentences, cold::dissect, sudi::dissect);
+            double none = time("no hot rows", sentences, cold::dissect);
+            for (int numHotWords : new int[]{16, 64, 256, model.getNumHotWords()}) {
+                CompiledModel hot = model.withHotWords(numHotWords);
+                int numCovered = 0;
+                for (String sentence : sentences) {
+                    for (String word : sentence.split(" ")) {
+                        if (hot.isHot(word)) numCovered++;
+                    }
+                }
+                double time = time(String.format("%d hot rows, %.1f%% of test words", hot.getNumHotWords(),
+                        100.0 * numCovered / countWords(sentences)), sentences, sentence -> hot.dissect(sentence));
+                System.out.printf("  %.2fx no hot rows%n", none / time);
+            }
+            DecodeOptions observed = DecodeOptions.observedTagsOnly();
+            double observedNone = time("observed tags, no hot rows", sentences, sentence -> cold.dissect(sentence, observed));
+            double observedHot = time("observed tags, hot rows", sentences, sentence -> sudi.dissect(sentence, observed));
+            System.out.printf("  %.2fx no hot rows%n", observedNone / observedHot);
+        }
+
+        if (sections.isEmpty() || sections.contains("tokenize")) {
+            // splitting the training sentences into words, alone and followed by a vocabulary lookup of each word
+            List<String> lines = readLines(trainSentences);
+            int numWords = countWords(lines);
+            Vocabulary vocabulary = new Vocabulary(sudi.getObservationGraph().keySet());
+            Tokenizer tokenizer = new Tokenizer();
+            int[] sink = new int[1];
+            time("split(\" \")", numWords, () -> {
+                for (String line : lines) sink[0] += line.split(" ").length;
+            });
+            time("Tokenizer", numWords, () -> {
+                for (String line : lines) sink[0] += tokenizer.split(line).size();
+            });
+            time("split(\" \") + lookup", numWords, () -> {
+                for (String line : lines) {
+                    for (String word : line.split(" ")) sink[0] += vocabulary.lookup(word);
+                }
+            });
+            time("Tokenizer + lookup", numWords, () -> {
+                for (String line : lines) {
+                    tokenizer.split(line);
+                    for (int i = 0; i < tokenizer.size(); i++) sink[0] += vocabulary.lookup(tokenizer.word(i));
+                }
+            });
+            if (sink[0] == 42) System.out.println();    // keep the results live
+        }
+
+        if (sections.isEmpty() || sections.contains("mapped")) {
+            // the mapped trainer must give the same model as the line reader, then training time and allocation
+            // of both, on Brown and on Brown repeated 10 times
+            File modelFile = File.createTempFile("sudi", ".model");
+            File mappedModelFile = File.createTempFile("sudi", ".model");
+            modelFile.deleteOnExit();
+            mappedModelFile.deleteOnExit();
+            sudi.saveModel(modelFile.getPath());
+            Sudi.trainMapped(trainSentences, trainTags).saveModel(mappedModelFile.getPath());
+            System.out.println("trainMapped model identical to train: "
+                    + Arrays.equals(Files.readAllBytes(modelFile.toPath()), Files.readAllBytes(mappedModelFile.toPath())));
+
+            timeTraining("train (Brown)", trainSentences, trainTags);
+            timeTraining("trainMapped (Brown)", trainSentences, trainTags,
+                    () -> Sudi.trainMapped(trainSentences, trainTags));
+            String largeSentences = repeatFile(trainSentences, 10);
+            String largeTags = repeatFile(trainTags, 10);
+            timeTraining("train (10x Brown)", largeSentences, largeTags);
+            timeTraining("trainMapped (10x Brown)", largeSentences, largeTags,
+                    () -> Sudi.trainMapped(largeSentences, largeTags));
+        }
+
+        if (sections.isEmpty() || sections.contains("options")) {
+            // accuracy against throughput for a range of decoding options
+            List<String> tagLines = readLines(testTags);
+            DecodeOptions[] beams = {
+                    DecodeOptions.exact(),
+                    DecodeOptions.beam(10, Double.POSITIVE_INFINITY),
+                    DecodeOptions.beam(5, Double.POSITIVE_INFINITY),
+                    DecodeOptions.beam(3, Double.POSITIVE_INFINITY),
+                    DecodeOptions.beam(2, Double.POSITIVE_INFINITY),
+                    DecodeOptions.beam(1, Double.POSITIVE_INFINITY),
+                    DecodeOptions.beam(0, 20),
+                    DecodeOptions.beam(0, 10),
+                    DecodeOptions.beam(0, 5),
+                    DecodeOptions.beam(5, 10),
+                    DecodeOptions.observedTagsOnly(),
+                    DecodeOptions.observedTagsOnly().withBeam(0, 10),
+                    DecodeOptions.observedTagsOnly().withSuffixGuessing(true),
+            };
+            for (DecodeOptions beam : beams) {
+                double accuracy = accuracy(sentences, tagLines, sentence -> sudi.dissect(sentence, beam));
+                time(String.format("%s %.2f%%", beam, 100 * accuracy), sentences, sentence -> sudi.dissect(sentence, beam));
+            }
+        }
+    }
+}
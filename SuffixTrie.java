@@ -0,0 +1,322 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable emission model for words never seen in training, which guesses their parts of speech from how they
+ * end (Brants, "TnT", 2000). Rare training words, which unknown words resemble most, are counted by their last
+ * few characters, with every digit folded to '0' so numbers share their shape. The tag distribution of each
+ * suffix is smoothed towards that of the suffix one character shorter, down to the tag distribution of all rare
+ * words, so a suffix ending few rare words mostly keeps its parent's distribution.
+ * The suffixes are compiled into a trie over the reversed characters, and every node caches its whole row of
+ * scores, so scoring an unknown word walks at most maxLength nodes and copies one row, allocating nothing.
+ * The rows are stored at the same ScorePrecision as the model's emission scores.
+ * Like the vocabulary, the tables are held in buffers that may point into a mapped model file.
+ */
+final class SuffixTrie {
+    static final int maxRareCount = 10;     // most times a word may be seen in training and still count as rare
+    static final int maxLength = 8;         // longest suffix counted
+    static final int minCount = 10;         // fewest rare words a suffix must end to get a node of its own
+    static final double priorWeight = 20;   // how many rare words a parent's distribution counts as in a child's
+    private static final short neverCode = (short) 0xFFFF;  // quantized score of a tag no rare word ending so was seen with
+
+    private final int numTags;
+    private final IntBuffer childOffsets;   // node -> start of its children in childChars and childNodes, root is node 0
+    private final CharBuffer childChars;    // character leading to each child, sorted within a node
+    private final IntBuffer childNodes;     // node each child is
+    private final ScorePrecision precision; // which one of the next three holds the rows, the others are null
+    private final DoubleBuffer rows;        // [node * numTags + id] -> log(p(word | id)), -infinity if id never ends so
+    private final FloatBuffer floatRows;    // rows rounded to floats
+    private final ShortBuffer codeRows;     // rows quantized, with the largest code standing for -infinity
+
+    private SuffixTrie(int numTags, IntBuffer childOffsets, CharBuffer childChars, IntBuffer childNodes,
+                       ScorePrecision precision, DoubleBuffer rows, FloatBuffer floatRows, ShortBuffer codeRows) {
+        this.numTags = numTags;
+        this.childOffsets = childOffsets;
+        this.childChars = childChars;
+        this.childNodes = childNodes;
+        this.precision = precision;
+        this.rows = rows;
+        this.floatRows = floatRows;
+        this.codeRows = codeRows;
+    }
+
+    /**
+     * Counts the suffixes of rare words and compiles them.
+     * The score of a tag at a node is log(p(tag | suffix) / count(tag)), the emission score of a word seen once
+     * and split over the tags by its suffix.
+     * @param rareWordCounts observation -> (part of speech -> count), for the rare words of the corpus only
+     * @param tagCounts tag id -> number of times it was seen with any word
+     */
+    static SuffixTrie build(Map<String, Map<String, Double>> rareWordCounts, Map<String, Integer> tagIds, long[] tagCounts) {
+        int numTags = tagCounts.length;
+
+        // count every suffix of every rare word, in a trie of nodes on the heap
+        List<char[]> nodeChars = new ArrayList<>();     // node -> characters leading to its children
+        List<int[]> nodeChildren = new ArrayList<>();   // node -> its children
+        List<double[]> nodeCounts = new ArrayList<>();  // node -> tag id -> count of rare words ending so
+        nodeChars.add(new char[0]);
+        nodeChildren.add(new int[0]);
+        nodeCounts.add(new double[numTags]);
+        for (Map.Entry<String, Map<String, Double>> word : rareWordCounts.entrySet()) {
+            String spelling = word.getKey();
+            int node = 0;
+            for (int k = 0; k <= Math.min(maxLength, spelling.length()); k++) {
+                if (k > 0) {
+                    char c = fold(spelling.charAt(spelling.length() - k));
+                    int child = child(nodeChars.get(node), nodeChildren.get(node), c);
+                    if (child == -1) {
+                        child = nodeChars.size();
+                        nodeChars.set(node, append(nodeChars.get(node), c));
+                        nodeChildren.set(node, Arrays.copyOf(nodeChildren.get(node), nodeChildren.get(node).length + 1));
+                        nodeChildren.get(node)[nodeChildren.get(node).length - 1] = child;
+                        nodeChars.add(new char[0]);
+                        nodeChildren.add(new int[0]);
+                        nodeCounts.add(new double[numTags]);
+                    }
+                    node = child;
+                }
+                for (Map.Entry<String, Double> count : word.getValue().entrySet()) {
+                    nodeCounts.get(node)[tagIds.get(count.getKey())] += count.getValue();
+                }
+            }
+        }
+
+        // lay the nodes out breadth first, dropping those ending too few rare words, and smooth each row
+        // towards its parent's as if the parent's distribution had been seen priorWeight more times
+        List<Integer> order = new ArrayList<>();    // new node -> old node
+        List<double[]> probabilities = new ArrayList<>();   // new node -> p(tag | suffix)
+        int[] offsets = new int[nodeChars.size() + 1];
+        List<Character> chars = new ArrayList<>();
+        List<Integer> children = new ArrayList<>();
+        order.add(0);
+        probabilities.add(normalized(nodeCounts.get(0)));
+        for (int node = 0; node < order.size(); node++) {
+            int old = order.get(node);
+            double[] parent = probabilities.get(node);
+            offsets[node] = chars.size();
+
+            // children in character order, so lookups can stop early
+            char[] oldChars = nodeChars.get(old);
+            int[] oldChildren = nodeChildren.get(old);
+            Integer[] byChar = new Integer[oldChars.length];
+            for (int k = 0; k < byChar.length; k++) byChar[k] = k;
+            Arrays.sort(byChar, (a, b) -> Character.compare(oldChars[a], oldChars[b]));
+
+            for (int k : byChar) {
+                double[] counts = nodeCounts.get(oldChildren[k]);
+                double total = 0;
+                for (double count : counts) total += count;
+                if (total < minCount) continue;
+
+                double[] smoothed = new double[numTags];
+                for (int id = 0; id < numTags; id++) smoothed[id] = (counts[id] + priorWeight * parent[id]) / (total + priorWeight);
+                chars.add(oldChars[k]);
+                children.add(order.size());
+                order.add(oldChildren[k]);
+                probabilities.add(smoothed);
+            }
+        }
+        int numNodes = order.size();
+        offsets[numNodes] = chars.size();
+
+        double[] rows = new double[numNodes * numTags];
+        for (int node = 0; node < numNodes; node++) {
+            double[] p = probabilities.get(node);
+            for (int id = 0; id < numTags; id++) {
+                rows[node * numTags + id] = p[id] > 0 && tagCounts[id] > 0 ? Math.log(p[id] / tagCounts[id]) : Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        char[] childChars = new char[chars.size()];
+        int[] childNodes = new int[children.size()];
+        for (int k = 0; k < childChars.length; k++) {
+            childChars[k] = chars.get(k);
+            childNodes[k] = children.get(k);
+        }
+        return new SuffixTrie(numTags, IntBuffer.wrap(Arrays.copyOf(offsets, numNodes + 1)), CharBuffer.wrap(childChars),
+                IntBuffer.wrap(childNodes), ScorePrecision.DOUBLE, DoubleBuffer.wrap(rows), null, null);
+    }
+
+    /**
+     * Returns a copy of this trie with its rows stored at the given precision, sharing the nodes. As for the
+     * emission scores, going back up to a higher precision does not restore the rounded digits.
+     */
+    SuffixTrie withPrecision(ScorePrecision precision) {
+        if (precision == this.precision) return this;
+
+        int numScores = numRows();
+        DoubleBuffer scores = null;
+        FloatBuffer floats = null;
+        ShortBuffer codes = null;
+        switch (precision) {
+            case FLOAT:
+                float[] floatArray = new float[numScores];
+                for (int k = 0; k < numScores; k++) floatArray[k] = (float) rowScore(k);
+                floats = FloatBuffer.wrap(floatArray);
+                break;
+            case QUANTIZED:
+                short[] codeArray = new short[numScores];
+                for (int k = 0; k < numScores; k++) {
+                    // finite scores clamp to the code below neverCode
+                    double score = rowScore(k);
+                    int code = Math.min(ScorePrecision.quantize(score) & 0xFFFF, (neverCode & 0xFFFF) - 1);
+                    codeArray[k] = score == Double.NEGATIVE_INFINITY ? neverCode : (short) code;
+                }
+                codes = ShortBuffer.wrap(codeArray);
+                break;
+            default:
+                double[] scoreArray = new double[numScores];
+                for (int k = 0; k < numScores; k++) scoreArray[k] = rowScore(k);
+                scores = DoubleBuffer.wrap(scoreArray);
+        }
+        return new SuffixTrie(numTags, childOffsets, childChars, childNodes, precision, scores, floats, codes);
+    }
+
+    /**
+     * Writes the trie as is, its rows at its precision
+     */
+    void write(ModelIO.Writer out) throws IOException {
+        out.writeInts(childOffsets);
+        out.writeChars(childChars);
+        out.writeInts(childNodes);
+        switch (precision) {
+            case FLOAT: out.writeFloats(floatRows); break;
+            case QUANTIZED: out.writeShorts(codeRows); break;
+            default: out.writeDoubles(rows);
+        }
+    }
+
+    /**
+     * Reads a trie written by write
+     * @param precision precision the rows were written at
+     * @param copy whether to copy the trie onto the heap, rather than keep views of in
+     */
+    static SuffixTrie read(ByteBuffer in, int numTags, ScorePrecision precision, boolean copy) throws IOException {
+        IntBuffer childOffsets = ModelIO.readInts(in);
+        CharBuffer childChars = ModelIO.readChars(in);
+        IntBuffer childNodes = ModelIO.readInts(in);
+        DoubleBuffer rows = null;
+        FloatBuffer floatRows = null;
+        ShortBuffer codeRows = null;
+        int numScores;
+        switch (precision) {
+            case FLOAT:
+                floatRows = ModelIO.readFloats(in);
+                numScores = floatRows.capacity();
+                break;
+            case QUANTIZED:
+                codeRows = ModelIO.readShorts(in);
+                numScores = codeRows.capacity();
+                break;
+            default:
+                rows = ModelIO.readDoubles(in);
+                numScores = rows.capacity();
+        }
+        int numNodes = childOffsets.capacity() - 1;
+        if (numNodes < 1 || childChars.capacity() != childNodes.capacity() || numScores != numNodes * numTags) {
+            throw new IOException("Model file has a malformed suffix trie.");
+        }
+        if (copy) {
+            childOffsets = ModelIO.copy(childOffsets);
+            childChars = ModelIO.copy(childChars);
+            childNodes = ModelIO.copy(childNodes);
+            if (rows != null) rows = ModelIO.copy(rows);
+            if (floatRows != null) floatRows = ModelIO.copy(floatRows);
+            if (codeRows != null) codeRows = ModelIO.copy(codeRows);
+        }
+        return new SuffixTrie(numTags, childOffsets, childChars, childNodes, precision, rows, floatRows, codeRows);
+    }
+
+    /**
+     * @return the node of the longest suffix of word in the trie, the root if none is
+     */
+    int find(CharSequence word) {
+        int node = 0;
+        for (int k = 1; k <= Math.min(maxLength, word.length()); k++) {
+            char c = fold(word.charAt(word.length() - k));
+            int child = -1;
+            for (int j = childOffsets.get(node); j < childOffsets.get(node + 1) && childChars.get(j) <= c; j++) {
+                if (childChars.get(j) == c) child = childNodes.get(j);
+            }
+            if (child == -1) break;
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * @return the score of the tag id at the node, -infinity if no rare word ending so was seen with it
+     */
+    double score(int node, int id) {
+        return rowScore(node * numTags + id);
+    }
+
+    /**
+     * @return the score at index k of the rows, widened to a double
+     */
+    private double rowScore(int k) {
+        switch (precision) {
+            case FLOAT: return floatRows.get(k);
+            case QUANTIZED:
+                short code = codeRows.get(k);
+                return code == neverCode ? Double.NEGATIVE_INFINITY : ScorePrecision.dequantize(code);
+            default: return rows.get(k);
+        }
+    }
+
+    /**
+     * @return the number of scores in the rows
+     */
+    private int numRows() {
+        switch (precision) {
+            case FLOAT: return floatRows.capacity();
+            case QUANTIZED: return codeRows.capacity();
+            default: return rows.capacity();
+        }
+    }
+
+    /**
+     * @return approximate number of bytes held by the trie
+     */
+    long footprintBytes() {
+        return 4L * (childOffsets.capacity() + childNodes.capacity()) + 2L * childChars.capacity()
+                + (long) precision.bytes() * numRows();
+    }
+
+    /**
+     * @return c lowercased, or '0' for any digit
+     */
+    private static char fold(char c) {
+        return Character.isDigit(c) ? '0' : Character.toLowerCase(c);
+    }
+
+    private static int child(char[] chars, int[] children, char c) {
+        for (int k = 0; k < chars.length; k++) {
+            if (chars[k] == c) return children[k];
+        }
+        return -1;
+    }
+
+    private static char[] append(char[] chars, char c) {
+        char[] appended = Arrays.copyOf(chars, chars.length + 1);
+        appended[chars.length] = c;
+        return appended;
+    }
+
+    private static double[] normalized(double[] counts) {
+        double total = 0;
+        for (double count : counts) total += count;
+        double[] p = new double[counts.length];
+        for (int id = 0; id < counts.length; id++) p[id] = total > 0 ? counts[id] / total : 0;
+        return p;
+    }
+}
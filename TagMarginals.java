@@ -0,0 +1,37 @@
+/**
+ * The most probable part of speech of each word of a sentence, with its posterior probability as a measure of
+ * how confident the model is in it
+ */
+public final class TagMarginals {
+    private final String[] partsOfSpeech;
+    private final double[] marginals;
+
+    TagMarginals(String[] partsOfSpeech, double[] marginals) {
+        this.partsOfSpeech = partsOfSpeech;
+        this.marginals = marginals;
+    }
+
+    /**
+     * @return the most probable part of speech of each word, in order
+     */
+    public String[] getPartsOfSpeech() {
+        return partsOfSpeech.clone();
+    }
+
+    /**
+     * @return the posterior probability of each word's part of speech, in order
+     */
+    public double[] getMarginals() {
+        return marginals.clone();
+    }
+
+    /**
+     * @return the lowest marginal of any word, 1 for an empty sentence: a sentence with a low value has at
+     * least one word the model is unsure of
+     */
+    public double getLowestMarginal() {
+        double lowest = 1;
+        for (double marginal : marginals) lowest = Math.min(lowest, marginal);
+        return lowest;
+    }
+}
@@ -0,0 +1,34 @@
+import java.util.Arrays;
+
+/**
+ * One way of tagging a sentence, with its score: the parts of speech of each word, and the log probability the
+ * model gives the sentence and those parts of speech together
+ */
+public final class TagSequence {
+    private final String[] partsOfSpeech;
+    private final double score;
+
+    TagSequence(String[] partsOfSpeech, double score) {
+        this.partsOfSpeech = partsOfSpeech;
+        this.score = score;
+    }
+
+    /**
+     * @return the part of speech of each word, in order
+     */
+    public String[] getPartsOfSpeech() {
+        return partsOfSpeech.clone();
+    }
+
+    /**
+     * @return the log probability of the sentence with these parts of speech
+     */
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.3f %s", score, Arrays.toString(partsOfSpeech));
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.Arrays;
+
+/**
+ * Splits a line into its words at single spaces, as String.split(" ") does, but only records where each word
+ * starts and ends: the line is scanned once and no array or substring is made per line.
+ * Like split, consecutive spaces give empty words, trailing empty words are dropped, and a line without a space
+ * is a single word, so the empty line is one empty word while a line of only spaces has no words.
+ * Words are read through word, a view into the line reused for every word, so looking words up in the
+ * Vocabulary, which folds case as it hashes, never makes a String either.
+ * A Tokenizer can also hold a sentence already split into words. It grows to fit the longest line it has seen
+ * and must only be used by one thread at a time.
+ */
+public final class Tokenizer {
+    private CharSequence line;          // line being split, null if holding words
+    private String[] words;             // words being held, null if splitting a line
+    private int[] starts = new int[16]; // word i -> start of the word in line
+    private int[] ends = new int[16];   // word i -> end of the word in line
+    private int size;                   // number of words
+
+    private final Word word = new Word();
+
+    /**
+     * Splits line at every space, replacing whatever this held before
+     * @return this
+     */
+    public Tokenizer split(CharSequence line) {
+        this.line = line;
+        this.words = null;
+        size = 0;
+
+        int length = line.length();
+        int start = 0;
+        int nonEmpty = 0;   // number of words up to and including the last non-empty one, to drop trailing empty words
+        while (start <= length) {
+            int end = nextSpace(line, start, length);
+            add(start, end);
+            if (end > start) nonEmpty = size;
+            start = end + 1;
+        }
+
+        // a line with no space is itself the only word, even if empty
+        if (size > 1) size = nonEmpty;
+        return this;
+    }
+
+    /**
+     * Holds words that are already split, replacing whatever this held before
+     * @return this
+     */
+    public Tokenizer of(String[] words) {
+        this.line = null;
+        this.words = words;
+        size = words.length;
+        return this;
+    }
+
+    /**
+     * @return the number of words
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the i-th word, as a view that stays valid until word is next called or the Tokenizer is reused
+     */
+    public CharSequence word(int i) {
+        if (words != null) return words[i];
+        word.start = starts[i];
+        word.end = ends[i];
+        return word;
+    }
+
+    /**
+     * @return the i-th word as a new String
+     */
+    public String toString(int i) {
+        if (words != null) return words[i];
+        return line.subSequence(starts[i], ends[i]).toString();
+    }
+
+    /**
+     * @return whether the i-th word is spelled exactly as s, false if s is null
+     */
+    public boolean matches(int i, String s) {
+        if (s == null) return false;
+        if (words != null) return words[i].equals(s);
+
+        int start = starts[i];
+        int length = ends[i] - start;
+        if (s.length() != length) return false;
+        for (int k = 0; k < length; k++) {
+            if (line.charAt(start + k) != s.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Appends the i-th word to out
+     */
+    public StringBuilder appendTo(StringBuilder out, int i) {
+        if (words != null) return out.append(words[i]);
+        return out.append(line, starts[i], ends[i]);
+    }
+
+    /**
+     * @return the index of the first space in line at or after from, or length if there is none
+     */
+    private static int nextSpace(CharSequence line, int from, int length) {
+        if (line instanceof String) {
+            // String.indexOf scans many characters at a time
+            int space = ((String) line).indexOf(' ', from);
+            return space < 0 ? length : space;
+        }
+        while (from < length && line.charAt(from) != ' ') from++;
+        return from;
+    }
+
+    private void add(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * A word of the line, without copying it
+     */
+    private final class Word implements CharSequence {
+        int start;
+        int end;
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return line.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return line.subSequence(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return line.subSequence(start, end).toString();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts of parts of speech, transitions and observations over some of the sentences of a training corpus,
+ * kept in primitive tables. Counts of separate chunks of a corpus can be merged in any grouping, which is how
+ * Sudi trains on several threads: each chunk is counted on its own thread and the chunks are merged in order.
+ * Parts of speech and observations are numbered in the order they are first seen, so merging the chunks of a
+ * corpus in order numbers them the same way as counting the whole corpus at once.
+ */
+class TrainingCounts {
+    private final List<String> tags = new ArrayList<>();            // tag id -> part of speech, start is tag id 0
+    private final Map<String, Integer> tagIds = new HashMap<>();    // part of speech -> tag id
+    private final List<String> words = new ArrayList<>();           // word id -> observation
+    private final Map<String, Integer> wordIds = new HashMap<>();   // observation -> word id
+
+    private long[] tagCounts = new long[16];        // tag id -> count, sentence starts for start
+    private int tagCapacity = 16;                   // row length of transitionCounts
+    private long[] transitionCounts = new long[16 * 16];    // [prevId * tagCapacity + currId] -> count
+
+    // observation counts, in an open-addressing table keyed by (word id << 32 | tag id)
+    private long[] emissionKeys = new long[1024];   // -1 if the slot is empty
+    private long[] emissionCounts = new long[1024];
+    private int numEmissions;
+
+    private boolean mismatched;     // whether counting stopped at a pair of lines of different lengths
+
+    private final Tokenizer partsOfSpeechInLine = new Tokenizer();
+    private final Tokenizer observationsInLine = new Tokenizer();
+    private int[] lineTagIds = new int[64];
+    private int[] lineWordIds = new int[64];
+
+    TrainingCounts(String start) {
+        Arrays.fill(emissionKeys, -1);
+        tagId(start);
+    }
+
+    /**
+     * Counts one sentence, given the lines of the tags and sentences files
+     * @return false, counting nothing, if the lines do not have the same number of words
+     */
+    boolean countSentence(String tagsLine, String obsLine) {
+        partsOfSpeechInLine.split(tagsLine);
+        observationsInLine.split(obsLine);
+        if (partsOfSpeechInLine.size() != observationsInLine.size()) {
+            mismatched = true;
+            return false;
+        }
+
+        int numWords = partsOfSpeechInLine.size();
+        if (lineTagIds.length < numWords) {
+            lineTagIds = new int[numWords * 2];
+            lineWordIds = new int[numWords * 2];
+        }
+        for (int i = 0; i < numWords; i++) {
+            lineTagIds[i] = tagId(partsOfSpeechInLine.toString(i));
+            lineWordIds[i] = wordId(observationsInLine.toString(i));
+        }
+        countIds(lineTagIds, lineWordIds, numWords);
+        return true;
+    }
+
+    /**
+     * Counts one sentence, given the tag id and word id of each of its words
+     */
+    void countIds(int[] tagIds, int[] wordIds, int numWords) {
+        // given each line is a sentence, count start once per line
+        tagCounts[0]++;
+
+        int prevId = 0;     // start
+        for (int i = 0; i < numWords; i++) {
+            int currId = tagIds[i];
+
+            tagCounts[currId]++;
+            transitionCounts[prevId * tagCapacity + currId]++;
+            addEmission(wordIds[i], currId, 1);
+
+            prevId = currId;
+        }
+    }
+
+    /**
+     * Records that counting stopped at a pair of lines of different lengths
+     */
+    void markMismatched() {
+        mismatched = true;
+    }
+
+    /**
+     * @return whether counting stopped because a pair of lines had different numbers of words
+     */
+    boolean isMismatched() {
+        return mismatched;
+    }
+
+    /**
+     * Adds the counts of other, which must come from sentences after those counted here
+     */
+    void merge(TrainingCounts other) {
+        // map other's ids to ids here, adding anything not yet seen
+        int[] tagMap = new int[other.tags.size()];
+        for (int id = 0; id < tagMap.length; id++) tagMap[id] = tagId(other.tags.get(id));
+        int[] wordMap = new int[other.words.size()];
+        for (int id = 0; id < wordMap.length; id++) wordMap[id] = wordId(other.words.get(id));
+
+        for (int prevId = 0; prevId < tagMap.length; prevId++) {
+            tagCounts[tagMap[prevId]] += other.tagCounts[prevId];
+            for (int currId = 0; currId < tagMap.length; currId++) {
+                transitionCounts[tagMap[prevId] * tagCapacity + tagMap[currId]] +=
+                        other.transitionCounts[prevId * other.tagCapacity + currId];
+            }
+        }
+
+        for (int slot = 0; slot < other.emissionKeys.length; slot++) {
+            long key = other.emissionKeys[slot];
+            if (key == -1) continue;
+            addEmission(wordMap[(int) (key >>> 32)], tagMap[(int) key], other.emissionCounts[slot]);
+        }
+
+        mismatched |= other.mismatched;
+    }
+
+    /**
+     * Writes the counts into graphs of the form used by Sudi's trainer: currPOS -> (next POS -> count),
+     * observation -> (POS -> count) and POS -> count. Parts of speech and observations are added in the order
+     * they were first seen, as the sequential trainer adds them.
+     */
+    void fillGraphs(Map<String, Map<String, Double>> transitionPOSGraph, Map<String, Map<String, Double>> observationGraph,
+                    Map<String, Integer> partOfSpeechCount) {
+        for (int prevId = 0; prevId < tags.size(); prevId++) {
+            Map<String, Double> transitions = new HashMap<>();
+            for (int currId = 0; currId < tags.size(); currId++) {
+                long count = transitionCounts[prevId * tagCapacity + currId];
+                if (count > 0) transitions.put(tags.get(currId), (double) count);
+            }
+            transitionPOSGraph.put(tags.get(prevId), transitions);
+            partOfSpeechCount.put(tags.get(prevId), (int) tagCounts[prevId]);
+        }
+
+        for (String word : words) {
+            observationGraph.put(word, new HashMap<>());
+        }
+        for (int slot = 0; slot < emissionKeys.length; slot++) {
+            long key = emissionKeys[slot];
+            if (key == -1) continue;
+            observationGraph.get(words.get((int) (key >>> 32))).put(tags.get((int) key), (double) emissionCounts[slot]);
+        }
+    }
+
+    /**
+     * @return the tag id of a part of speech, adding it if it has not been seen
+     */
+    int tagId(String partOfSpeech) {
+        Integer id = tagIds.get(partOfSpeech);
+        if (id != null) return id;
+
+        id = tags.size();
+        tags.add(partOfSpeech);
+        tagIds.put(partOfSpeech, id);
+        if (id == tagCapacity) growTags();
+        return id;
+    }
+
+    /**
+     * @return the word id of an observation, adding it if it has not been seen
+     */
+    int wordId(String observation) {
+        Integer id = wordIds.get(observation);
+        if (id != null) return id;
+
+        id = words.size();
+        words.add(observation);
+        wordIds.put(observation, id);
+        return id;
+    }
+
+    /**
+     * Doubles the number of tags the count tables can hold
+     */
+    private void growTags() {
+        int newCapacity = tagCapacity * 2;
+        long[] newTransitionCounts = new long[newCapacity * newCapacity];
+        for (int prevId = 0; prevId < tagCapacity; prevId++) {
+            System.arraycopy(transitionCounts, prevId * tagCapacity, newTransitionCounts, prevId * newCapacity, tagCapacity);
+        }
+        transitionCounts = newTransitionCounts;
+        tagCounts = Arrays.copyOf(tagCounts, newCapacity);
+        tagCapacity = newCapacity;
+    }
+
+    private void addEmission(int wordId, int tagId, long count) {
+        long key = (long) wordId << 32 | tagId;
+        int mask = emissionKeys.length - 1;
+        int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+        while (emissionKeys[slot] != -1 && emissionKeys[slot] != key) slot = (slot + 1) & mask;
+
+        if (emissionKeys[slot] == -1) {
+            emissionKeys[slot] = key;
+            numEmissions++;
+        }
+        emissionCounts[slot] += count;
+
+        // keep the table at most half full
+        if (numEmissions * 2 > emissionKeys.length) growEmissions();
+    }
+
+    private void growEmissions() {
+        long[] oldKeys = emissionKeys;
+        long[] oldCounts = emissionCounts;
+        emissionKeys = new long[oldKeys.length * 2];
+        emissionCounts = new long[oldKeys.length * 2];
+        Arrays.fill(emissionKeys, -1);
+
+        int mask = emissionKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == -1) continue;
+            int slot = Long.hashCode(oldKeys[i] * 0x9E3779B97F4A7C15L) & mask;
+            while (emissionKeys[slot] != -1) slot = (slot + 1) & mask;
+            emissionKeys[slot] = oldKeys[i];
+            emissionCounts[slot] = oldCounts[i];
+        }
+    }
+}
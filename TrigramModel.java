@@ -0,0 +1,468 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Second-order HMM: each part of speech depends on the two before it. Shares the tags, vocabulary and emission
+ * scores of a CompiledModel, and adds dense trigram transition scores, interpolated from trigram and bigram
+ * estimates with the weight that tags held-out training sentences best.
+ * Decoding runs Viterbi over states that are pairs of tags, which would cost |tags|^3 per word, so each word
+ * only takes the tags it was seen with in training (every tag if it is unknown), as DecodeOptions.observedTagsOnly
+ * does for the bigram model. A word then costs |tags of the word two before| x |tags of the word before| x
+ * |tags of the word|, which is a handful for most words.
+ * Immutable; any number of threads may decode against one TrigramModel.
+ */
+public final class TrigramModel {
+    private static final int heldOutEvery = 10;     // every heldOutEvery-th training sentence tunes the weights
+    private static final int weightSteps = 10;      // trigram weights tried: 0, 1 / weightSteps, ... below 1
+
+    private final CompiledModel model;          // tags, vocabulary and emission scores
+    private final int numTags;
+    private final double[] trigramScores;       // [(t1 * numTags + t2) * numTags + t3] -> log p(t3 | t1, t2), -infinity if 0
+    private final double[] weights;             // interpolation weights of the unigram, bigram and trigram estimates
+    private final double[] tuningAccuracies;    // trigram weight step -> fraction of held-out words tagged right
+
+    // one reusable decoding workspace per thread calling dissect
+    private static final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    private TrigramModel(CompiledModel model, double[] trigramScores, double[] weights, double[] tuningAccuracies) {
+        this.model = model;
+        this.numTags = model.getNumTags();
+        this.trigramScores = trigramScores;
+        this.weights = weights;
+        this.tuningAccuracies = tuningAccuracies;
+    }
+
+    /**
+     * Counts the tag trigrams of a training corpus, each sentence starting from the start tag twice, and
+     * interpolates their scores with the bigram scores.
+     * The weight of the trigram estimates is tuned, not counted: every heldOutEvery-th sentence is held out, a
+     * bigram model is trained on the rest, and the held-out sentences are tagged against it with each weight in
+     * turn. The weight tagging the most held-out words right is kept, the smallest one on a tie, so where trigrams
+     * do not help it is 0 and the model tags as the bigram model does with DecodeOptions.observedTagsOnly.
+     * The final scores count every sentence.
+     * @param model model trained on the same corpus, whose tags and emission scores are shared
+     * @param trainingSentencesFilePath sentences file, one sentence per line
+     * @param trainingTagsFilePath tags file, one sentence per line; lines with a tag the model does not know are skipped
+     */
+    public static TrigramModel train(CompiledModel model, String trainingSentencesFilePath, String trainingTagsFilePath)
+            throws IOException {
+        return train(model, trainingSentencesFilePath, trainingTagsFilePath, null);
+    }
+
+    /**
+     * Counts the tag trigrams of a training corpus as train does, interpolating with the given weights
+     * @param weights interpolation weights of the unigram, bigram and trigram estimates, or null to tune them
+     */
+    static TrigramModel train(CompiledModel model, String trainingSentencesFilePath, String trainingTagsFilePath,
+                              double[] weights) throws IOException {
+        List<String> sentences = new ArrayList<>();
+        List<String> tagLines = new ArrayList<>();
+        try (BufferedReader tags = new BufferedReader(new FileReader(trainingTagsFilePath));
+             BufferedReader obs = new BufferedReader(new FileReader(trainingSentencesFilePath))) {
+            Tokenizer partsOfSpeech = new Tokenizer();
+            Tokenizer observations = new Tokenizer();
+            String tagsLine;
+            String obsLine;
+            while ((tagsLine = tags.readLine()) != null && (obsLine = obs.readLine()) != null) {
+                // stop at the first pair of lines that do not match, like Sudi
+                if (partsOfSpeech.split(tagsLine).size() != observations.split(obsLine).size()) {
+                    System.err.println("training files not same format!");
+                    break;
+                }
+                sentences.add(obsLine);
+                tagLines.add(tagsLine);
+            }
+        }
+
+        if (weights != null) return new TrigramModel(model, count(model, tagLines).scores(weights), weights.clone(), new double[0]);
+
+        // split off the held-out sentences and train a bigram model on the others
+        List<String> keptSentences = new ArrayList<>();
+        List<String> keptTagLines = new ArrayList<>();
+        List<Integer> heldOut = new ArrayList<>();     // indices of the held-out sentences
+        for (int i = 0; i < sentences.size(); i++) {
+            if ((i + 1) % heldOutEvery == 0) heldOut.add(i);
+            else {
+                keptSentences.add(sentences.get(i));
+                keptTagLines.add(tagLines.get(i));
+            }
+        }
+        CompiledModel tuningModel = Sudi.trainLines(keptSentences, keptTagLines).getModel();
+        TrigramCounts tuningCounts = count(tuningModel, keptTagLines);
+
+        // the tag ids of the held-out sentences in the tuning model, skipping those with a tag it does not know
+        Map<String, Integer> tuningTagIds = tagIds(tuningModel);
+        Tokenizer partsOfSpeech = new Tokenizer();
+        List<String> heldOutSentences = new ArrayList<>();
+        List<int[]> heldOutTagIds = new ArrayList<>();
+        for (int i : heldOut) {
+            partsOfSpeech.split(tagLines.get(i));
+            int[] ids = new int[partsOfSpeech.size()];
+            if (!toIds(partsOfSpeech, tuningTagIds, ids)) continue;
+            heldOutSentences.add(sentences.get(i));
+            heldOutTagIds.add(ids);
+        }
+
+        // tag the held-out sentences with every trigram weight, keeping the first that tags the most words right
+        weights = new double[] {0, 1, 0};
+        double[] tuningAccuracies = new double[weightSteps];
+        long numHeldOutWords = 0;
+        for (int[] ids : heldOutTagIds) numHeldOutWords += ids.length;
+        long mostRight = -1;
+        for (int step = 0; step < weightSteps; step++) {
+            double[] tried = {0, 1 - (double) step / weightSteps, (double) step / weightSteps};
+            TrigramModel candidate = new TrigramModel(tuningModel, tuningCounts.scores(tried), tried, null);
+            long right = 0;
+            for (int i = 0; i < heldOutSentences.size(); i++) {
+                right += candidate.countRight(heldOutSentences.get(i), heldOutTagIds.get(i));
+            }
+            tuningAccuracies[step] = numHeldOutWords > 0 ? (double) right / numHeldOutWords : 0;
+            if (right > mostRight) {
+                mostRight = right;
+                weights = tried;
+            }
+        }
+
+        return new TrigramModel(model, count(model, tagLines).scores(weights), weights, tuningAccuracies);
+    }
+
+    /**
+     * Counts the tags of tagLines, skipping lines with a tag model does not know
+     */
+    private static TrigramCounts count(CompiledModel model, List<String> tagLines) {
+        TrigramCounts rCounts = new TrigramCounts(model.getNumTags(), model.getStartId());
+        Map<String, Integer> tagIds = tagIds(model);
+        Tokenizer partsOfSpeech = new Tokenizer();
+        int[] lineIds = new int[16];
+        for (String tagsLine : tagLines) {
+            partsOfSpeech.split(tagsLine);
+            if (lineIds.length < partsOfSpeech.size()) lineIds = new int[partsOfSpeech.size() * 2];
+            if (toIds(partsOfSpeech, tagIds, lineIds)) rCounts.add(lineIds, partsOfSpeech.size());
+        }
+        return rCounts;
+    }
+
+    /**
+     * @return tag -> id in model
+     */
+    private static Map<String, Integer> tagIds(CompiledModel model) {
+        Map<String, Integer> rTagIds = new HashMap<>();
+        for (int id = 0; id < model.getNumTags(); id++) rTagIds.put(model.getTag(id), id);
+        return rTagIds;
+    }
+
+    /**
+     * Writes the id of each of partsOfSpeech into rIds
+     * @return false if some part of speech has no id
+     */
+    private static boolean toIds(Tokenizer partsOfSpeech, Map<String, Integer> tagIds, int[] rIds) {
+        for (int i = 0; i < partsOfSpeech.size(); i++) {
+            Integer id = tagIds.get(partsOfSpeech.toString(i));
+            if (id == null) return false;
+            rIds[i] = id;
+        }
+        return true;
+    }
+
+    /**
+     * @return the interpolation weights of the unigram, bigram and trigram estimates, summing to 1
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * @return the fraction of held-out words tagged right with each trigram weight tried in training, 0, then
+     * 1 / weightSteps and so on, empty if the weights were given; at 0 the held-out words are tagged as by the
+     * bigram model with DecodeOptions.observedTagsOnly
+     */
+    public double[] getTuningAccuracies() {
+        return tuningAccuracies.clone();
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns a list of parts of speech corresponding to each word.
+     * @param input string to be interpreted
+     * @return ordered list of parts of speech corresponding to each word in input
+     */
+    public String[] dissect(String input) {
+        return dissect(input, DecodeOptions.exact());
+    }
+
+    /**
+     * Takes a sentence separated by spaces and returns a list of parts of speech corresponding to each word.
+     * Only suffix guessing is taken from options: every word takes only its observed tags whatever
+     * observedTagsOnly says, and there is no beam or checkpointing.
+     * @param input string to be interpreted
+     * @param options how to decode, here whether unknown words are scored and narrowed by their suffixes
+     * @return ordered list of parts of speech corresponding to each word in input
+     */
+    public String[] dissect(String input, DecodeOptions options) {
+        Workspace workspace = workspaces.get();
+        Tokenizer words = workspace.tokenizer.split(input);
+        String[] rPartsOfSpeech = new String[words.size()];    // array of corresponding parts of speech to return
+        if (!decode(words, workspace, options)) return rPartsOfSpeech;   // no path through the sentence
+
+        for (int i = 0; i < words.size(); i++) {
+            rPartsOfSpeech[i] = model.getTag(workspace.tagIds[i]);
+        }
+        return rPartsOfSpeech;
+    }
+
+    /**
+     * @return how many words of sentence are tagged with their id in tagIds
+     */
+    private int countRight(String sentence, int[] tagIds) {
+        Workspace workspace = workspaces.get();
+        Tokenizer words = workspace.tokenizer.split(sentence);
+        if (!decode(words, workspace, DecodeOptions.exact())) return 0;
+
+        int right = 0;
+        for (int i = 0; i < words.size(); i++) {
+            if (workspace.tagIds[i] == tagIds[i]) right++;
+        }
+        return right;
+    }
+
+    /**
+     * Viterbi over pairs of tags, writing the best tag of each word into workspace.tagIds
+     * @return whether there is a path through the sentence
+     */
+    private boolean decode(Tokenizer words, Workspace workspace, DecodeOptions options) {
+        int numWords = words.size();
+        if (numWords == 0) return true;
+
+        workspace.ensureCapacity(numWords, numTags);
+        int[] candidates = workspace.candidates;            // tags each word may take, word after word
+        int[] candidateOffsets = workspace.candidateOffsets;    // word i -> start of its tags in candidates
+
+        // the words before the first both take only start, which sits just before the first word's tags
+        int startId = model.getStartId();
+        candidates[0] = startId;
+        candidateOffsets[0] = 1;
+        int numCandidates = 1;
+        int numPairs = 0;       // pairs scored so far, pairs of word i start at pairOffsets[i]
+        boolean guessFromSuffix = options.isSuffixGuessing();
+
+        for (int i = 0; i < numWords; i++) {
+            CharSequence word = words.word(i);
+            workspace.observationRow = model.observationRow(word, workspace.observationScores, guessFromSuffix);
+
+            workspace.ensureCandidateCapacity(numCandidates + numTags);
+            candidates = workspace.candidates;
+            int found = model.observedTags(word, workspace.scratch, guessFromSuffix);
+            System.arraycopy(workspace.scratch, 0, candidates, numCandidates, found);
+            candidateOffsets[i] = numCandidates;
+            candidateOffsets[i + 1] = numCandidates + found;
+
+            workspace.pairOffsets[i] = numPairs;
+            if (!scorePairs(workspace, i, numPairs) && found < numTags) {
+                // none of the word's tags can follow, so let it take any tag
+                for (int id = 0; id < numTags; id++) candidates[numCandidates + id] = id;
+                candidateOffsets[i + 1] = numCandidates + numTags;
+                scorePairs(workspace, i, numPairs);
+            }
+            numCandidates = candidateOffsets[i + 1];
+            numPairs += pairCount(candidateOffsets, i);
+        }
+
+        // best pair at the last word
+        int last = numWords - 1;
+        double[] pairScores = workspace.pairScores;
+        int width = candidateOffsets[last + 1] - candidateOffsets[last];    // tags of the last word
+        int bestPair = -1;
+        for (int pair = 0; pair < pairCount(candidateOffsets, last); pair++) {
+            double score = pairScores[workspace.pairOffsets[last] + pair];
+            if (score == Double.NEGATIVE_INFINITY) continue;
+            if (bestPair == -1 || score > pairScores[workspace.pairOffsets[last] + bestPair]) bestPair = pair;
+        }
+        if (bestPair == -1) return false;
+
+        // fill in tags from the last word back, following the tag index two words before
+        int prevIndex = bestPair / width;   // index of the tag of word i-1 among its candidates
+        int index = bestPair % width;       // index of the tag of word i among its candidates
+        for (int i = last; i >= 0; i--) {
+            workspace.tagIds[i] = candidates[candidateOffsets[i] + index];
+            int prevPrevIndex = workspace.backpointers[workspace.pairOffsets[i] + prevIndex * width + index];
+            index = prevIndex;
+            prevIndex = prevPrevIndex;
+            if (i > 0) width = candidateOffsets[i] - candidateOffsets[i - 1];
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of (tag of word i-1, tag of word i) pairs of word i
+     */
+    private static int pairCount(int[] candidateOffsets, int i) {
+        int prevCount = i == 0 ? 1 : candidateOffsets[i] - candidateOffsets[i - 1];
+        return prevCount * (candidateOffsets[i + 1] - candidateOffsets[i]);
+    }
+
+    /**
+     * Scores every (tag of word i-1, tag of word i) pair from the pairs of word i-1, writing each best tag index
+     * two words back into backpointers
+     * @return whether any pair can be reached
+     */
+    private boolean scorePairs(Workspace workspace, int i, int pairOffset) {
+        int[] candidates = workspace.candidates;
+        int[] candidateOffsets = workspace.candidateOffsets;
+        workspace.ensurePairCapacity(pairOffset + pairCount(candidateOffsets, i));
+        double[] pairScores = workspace.pairScores;
+        int[] backpointers = workspace.backpointers;
+        double[] observationScores = workspace.observationRow;
+
+        int begin = candidateOffsets[i];
+        int width = candidateOffsets[i + 1] - begin;                        // tags of word i
+        // tags of words i-1 and i-2, both just start before the first word
+        int prevBegin = i == 0 ? 0 : candidateOffsets[i - 1];
+        int prevWidth = i == 0 ? 1 : candidateOffsets[i] - prevBegin;
+        int prevPrevBegin = i <= 1 ? 0 : candidateOffsets[i - 2];
+        int prevPrevWidth = i <= 1 ? 1 : candidateOffsets[i - 1] - prevPrevBegin;
+        int prevPairOffset = i == 0 ? -1 : workspace.pairOffsets[i - 1];
+
+        boolean reached = false;
+        for (int a = 0; a < prevWidth; a++) {
+            int t2 = candidates[prevBegin + a];
+            for (int b = 0; b < width; b++) {
+                int t3 = candidates[begin + b];
+                double best = Double.NEGATIVE_INFINITY;
+                int bestIndex = 0;
+                for (int c = 0; c < prevPrevWidth; c++) {
+                    int t1 = candidates[prevPrevBegin + c];
+                    double prevScore = i == 0 ? 0.0 : pairScores[prevPairOffset + c * prevWidth + a];
+                    if (prevScore == Double.NEGATIVE_INFINITY) continue;     // pair not reachable
+                    double transitionScore = trigramScores[(t1 * numTags + t2) * numTags + t3];
+                    if (transitionScore == Double.NEGATIVE_INFINITY) continue;
+
+                    double score = prevScore + transitionScore + observationScores[t3];
+                    if (score > best) {
+                        best = score;
+                        bestIndex = c;
+                    }
+                }
+                pairScores[pairOffset + a * width + b] = best;
+                backpointers[pairOffset + a * width + b] = bestIndex;
+                reached |= best != Double.NEGATIVE_INFINITY;
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Unigram, bigram and trigram counts of tag sentences, each starting from the start tag twice
+     */
+    private static class TrigramCounts {
+        final int numTags;
+        final int startId;
+        final long[] unigramCounts;
+        final long[] bigramCounts;      // [t2 * numTags + t3]
+        final long[] trigramCounts;     // [(t1 * numTags + t2) * numTags + t3]
+        long numTokens;
+        long numSentences;
+
+        TrigramCounts(int numTags, int startId) {
+            this.numTags = numTags;
+            this.startId = startId;
+            unigramCounts = new long[numTags];
+            bigramCounts = new long[numTags * numTags];
+            trigramCounts = new long[numTags * numTags * numTags];
+        }
+
+        /**
+         * Counts the first numWords tags of a sentence
+         */
+        void add(int[] tagIds, int numWords) {
+            numSentences++;
+            int t1 = startId;
+            int t2 = startId;
+            for (int i = 0; i < numWords; i++) {
+                int t3 = tagIds[i];
+                unigramCounts[t3]++;
+                bigramCounts[t2 * numTags + t3]++;
+                trigramCounts[(t1 * numTags + t2) * numTags + t3]++;
+                numTokens++;
+                t1 = t2;
+                t2 = t3;
+            }
+        }
+
+        /**
+         * @param weights interpolation weights of the unigram, bigram and trigram estimates
+         * @return the interpolated log scores, indexed as trigramCounts; an estimate whose history was never
+         * seen is left out and the others reweighted. As in Sudi.normalize, each history is divided by every time
+         * it was seen, ending a sentence or not, and start by the number of sentences, so with weights 0, 1, 0
+         * these are exactly the bigram model's transition scores.
+         */
+        double[] scores(double[] weights) {
+            double[] rScores = new double[trigramCounts.length];
+            for (int k = 0; k < trigramCounts.length; k++) {
+                int t3 = k % numTags;
+                int t2 = k / numTags % numTags;
+                int t1 = k / numTags / numTags;
+                long bigramHistory = t2 == startId ? numSentences : unigramCounts[t2];
+                long trigramHistory = t1 == startId && t2 == startId ? numSentences : bigramCounts[t1 * numTags + t2];
+
+                double p = weights[0] * unigramCounts[t3] / Math.max(1, numTokens);
+                double weight = weights[0];
+                if (bigramHistory > 0) {
+                    p += weights[1] * bigramCounts[t2 * numTags + t3] / bigramHistory;
+                    weight += weights[1];
+                }
+                if (trigramHistory > 0) {
+                    p += weights[2] * trigramCounts[k] / trigramHistory;
+                    weight += weights[2];
+                }
+                rScores[k] = weight > 0 && p > 0 ? Math.log(p / weight) : Double.NEGATIVE_INFINITY;
+            }
+            return rScores;
+        }
+    }
+
+    /**
+     * Scratch buffers for decoding one sentence, grown to fit the longest sentence seen
+     */
+    private static class Workspace {
+        double[] observationScores = new double[0];     // score of the current word for each tag, if not a ready row
+        double[] observationRow;                        // score of the current word for each tag, only read
+        int[] scratch = new int[0];                     // tags of the current word, as found
+        int[] candidates = new int[0];
+        int[] candidateOffsets = new int[0];
+        int[] pairOffsets = new int[0];                 // word i -> start of its pairs in pairScores and backpointers
+        double[] pairScores = new double[0];            // [pairOffsets[i] + a * tags of word i + b] -> score
+        int[] backpointers = new int[0];                // same index -> best tag index two words back
+        int[] tagIds = new int[0];                      // word i -> best tag, once decoded
+        final Tokenizer tokenizer = new Tokenizer();    // words of the sentence being decoded
+
+        void ensureCapacity(int numWords, int numTags) {
+            if (observationScores.length < numTags) {
+                observationScores = new double[numTags];
+                scratch = new int[numTags];
+            }
+            ensureCandidateCapacity(1 + numTags);
+            if (candidateOffsets.length < numWords + 1) {
+                candidateOffsets = new int[Math.max(numWords + 1, candidateOffsets.length * 2)];
+                pairOffsets = new int[candidateOffsets.length];
+                tagIds = new int[candidateOffsets.length];
+            }
+        }
+
+        void ensureCandidateCapacity(int numCandidates) {
+            if (candidates.length < numCandidates) candidates = Arrays.copyOf(candidates, Math.max(numCandidates, candidates.length * 2));
+        }
+
+        void ensurePairCapacity(int numPairs) {
+            if (pairScores.length < numPairs) {
+                int capacity = Math.max(numPairs, pairScores.length * 2);
+                pairScores = Arrays.copyOf(pairScores, capacity);
+                backpointers = Arrays.copyOf(backpointers, capacity);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Scratch buffers for Sudi's decoder. A workspace grows to fit the longest sentence it has seen and is reused
+ * across calls, so decoding allocates nothing once it has warmed up.
+ * A workspace must only be used by one thread at a time.
+ */
+public class ViterbiWorkspace {
+    double[] currScores = new double[0];        // score for each currState
+    double[] nextScores = new double[0];        // score for each nextState
+    double[] observationScores = new double[0]; // score of the current word for each nextState
+    double[] beamScores = new double[0];        // scores being ranked when pruning to a beam
+    double[] stepScratch = new double[0];       // used by the max-plus kernel
+    int[] liveIds = new int[0];                 // ids of the reachable currStates
+    int[] candidateIds = new int[0];            // ids of the nextStates the current word may take
+    int[] backpointers = new int[0];            // [i * numTags + nextId] -> best currId at observation i-1
+    int[] tagIds = new int[0];                  // tag ids of the last decoded sentence
+    // forward-backward and the k-best lattice take turns with forward and emissions
+    double[] forward = new double[0];           // [i * numTags + id] -> scaled forward probability, then posterior, or Viterbi score
+    double[] emissions = new double[0];         // [i * numTags + id] -> scaled probability of word i for id, or its score
+    KBestLattice.Ranked[] ranked = new KBestLattice.Ranked[0];  // [i * numTags + id] -> paths found into id at word i
+    double[] checkpoints = new double[0];       // [k * numTags + id] -> score of id before the k-th segment, when checkpointing
+    final Tokenizer tokenizer = new Tokenizer();    // words of the sentence being decoded
+
+    /**
+     * Grows the buffers, if needed, to decode a sentence of numWords words over numTags tags
+     */
+    void ensureCapacity(int numWords, int numTags) {
+        ensureTagCapacity(numTags);
+        ensureBackpointerCapacity(numWords, numTags);
+        ensureTagIdCapacity(numWords);
+    }
+
+    /**
+     * Grows the per-tag buffers, if needed, to hold numTags tags
+     */
+    void ensureTagCapacity(int numTags) {
+        if (currScores.length < numTags) {
+            currScores = new double[numTags];
+            nextScores = new double[numTags];
+            observationScores = new double[numTags];
+            beamScores = new double[numTags];
+            stepScratch = new double[numTags];
+            liveIds = new int[numTags];
+            candidateIds = new int[numTags];
+        }
+    }
+
+    /**
+     * Grows backpointers, if needed, to hold numColumns columns of numTags tags
+     */
+    void ensureBackpointerCapacity(int numColumns, int numTags) {
+        if (backpointers.length < numColumns * numTags) {
+            // grow geometrically so a run of slightly longer sentences doesn't reallocate every time
+            backpointers = new int[Math.max(numColumns * numTags, backpointers.length * 2)];
+        }
+    }
+
+    /**
+     * Grows tagIds, if needed, to hold numWords tag ids
+     */
+    void ensureTagIdCapacity(int numWords) {
+        if (tagIds.length < numWords) {
+            tagIds = new int[Math.max(numWords, tagIds.length * 2)];
+        }
+    }
+
+    /**
+     * Grows checkpoints, if needed, to hold numCheckpoints score vectors of numTags tags
+     */
+    void ensureCheckpointCapacity(int numCheckpoints, int numTags) {
+        if (checkpoints.length < numCheckpoints * numTags) {
+            checkpoints = new double[Math.max(numCheckpoints * numTags, checkpoints.length * 2)];
+        }
+    }
+
+    /**
+     * Grows the forward-backward buffers, if needed, to hold numWords words of numTags tags
+     */
+    void ensureForwardBackwardCapacity(int numWords, int numTags) {
+        if (forward.length < numWords * numTags) {
+            forward = new double[Math.max(numWords * numTags, forward.length * 2)];
+            emissions = new double[forward.length];
+        }
+    }
+
+    /**
+     * Grows ranked, if needed, to hold numNodes nodes of a k-best lattice
+     */
+    void ensureRankedCapacity(int numNodes) {
+        if (ranked.length < numNodes) {
+            ranked = new KBestLattice.Ranked[Math.max(numNodes, ranked.length * 2)];
+        }
+    }
+
+    /**
+     * @return the number of bytes held by the buffers
+     */
+    long footprintBytes() {
+        return 8L * (currScores.length + nextScores.length + observationScores.length + beamScores.length
+                + stepScratch.length + checkpoints.length + forward.length + emissions.length)
+                + 4L * (liveIds.length + candidateIds.length + backpointers.length + tagIds.length + ranked.length);
+    }
+}
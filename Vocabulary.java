@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Immutable table interning words into ids 0..size()-1.
+ * Words are packed into a single char array and found through an open-addressing hash table of ints,
+ * so a lookup hashes the characters directly and never allocates or boxes.
+ * Lookups fold the characters to lowercase while hashing, so looking up "The" finds the word "the".
+ * The tables are held in buffers, which wrap heap arrays or, for a mapped model file, point into the mapping.
+ */
+public class Vocabulary {
+    private final CharBuffer chars;     // every word, back to back
+    private final IntBuffer offsets;    // word id -> start of the word in chars, offsets[size] = end of chars
+    private final IntBuffer hashes;     // word id -> hash of the word
+    private final IntBuffer slots;      // hash table: word id, or -1 if empty. Length is a power of two
+    private final int mask;             // slots.capacity() - 1
+    private final int size;             // number of distinct words
+
+    /**
+     * Interns each distinct word, in iteration order, as it is spelled (no case folding)
+     */
+    public Vocabulary(Collection<String> words) {
+        Set<String> distinct = new LinkedHashSet<>(words);
+        size = distinct.size();
+
+        int numChars = 0;
+        for (String word : distinct) numChars += word.length();
+
+        char[] chars = new char[numChars];
+        int[] offsets = new int[size + 1];
+        int[] hashes = new int[size];
+
+        // keep the table at most half full so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1;
+        int[] slots = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(slots, -1);
+
+        int id = 0;
+        int end = 0;
+        for (String word : distinct) {
+            int hash = hash(word, 0, word.length(), false);
+
+            word.getChars(0, word.length(), chars, end);
+            offsets[id] = end;
+            hashes[id] = hash;
+            end += word.length();
+            offsets[id + 1] = end;
+
+            int slot = hash & mask;
+            while (slots[slot] != -1) slot = (slot + 1) & mask;
+            slots[slot] = id;
+            id++;
+        }
+
+        this.chars = CharBuffer.wrap(chars);
+        this.offsets = IntBuffer.wrap(offsets);
+        this.hashes = IntBuffer.wrap(hashes);
+        this.slots = IntBuffer.wrap(slots);
+    }
+
+    private Vocabulary(CharBuffer chars, IntBuffer offsets, IntBuffer hashes, IntBuffer slots) {
+        this.chars = chars;
+        this.offsets = offsets;
+        this.hashes = hashes;
+        this.slots = slots;
+        this.mask = slots.capacity() - 1;
+        this.size = hashes.capacity();
+    }
+
+    /**
+     * Writes the table as is, so read does not need to rehash any word
+     */
+    void write(ModelIO.Writer out) throws IOException {
+        out.writeChars(chars);
+        out.writeInts(offsets);
+        out.writeInts(hashes);
+        out.writeInts(slots);
+    }
+
+    /**
+     * Reads a table written by write
+     * @param copy whether to copy the table onto the heap, rather than keep views of in
+     */
+    static Vocabulary read(ByteBuffer in, boolean copy) throws IOException {
+        CharBuffer chars = ModelIO.readChars(in);
+        IntBuffer offsets = ModelIO.readInts(in);
+        IntBuffer hashes = ModelIO.readInts(in);
+        IntBuffer slots = ModelIO.readInts(in);
+        if (offsets.capacity() != hashes.capacity() + 1 || Integer.bitCount(slots.capacity()) != 1) {
+            throw new IOException("Model file has a malformed vocabulary.");
+        }
+        if (copy) return new Vocabulary(ModelIO.copy(chars), ModelIO.copy(offsets), ModelIO.copy(hashes), ModelIO.copy(slots));
+        return new Vocabulary(chars, offsets, hashes, slots);
+    }
+
+    /**
+     * @return the number of distinct words
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the id of the lowercased word, or -1 if it is not in the vocabulary
+     */
+    public int lookup(CharSequence word) {
+        return lookup(word, 0, word.length());
+    }
+
+    /**
+     * @return the id of the lowercased characters word[start, end), or -1 if they are not in the vocabulary
+     */
+    public int lookup(CharSequence word, int start, int end) {
+        int hash = hash(word, start, end, true);
+        int length = end - start;
+        for (int slot = hash & mask; slots.get(slot) != -1; slot = (slot + 1) & mask) {
+            int id = slots.get(slot);
+            int offset = offsets.get(id);
+            if (hashes.get(id) != hash || offsets.get(id + 1) - offset != length) continue;
+
+            // compare character by character
+            int i = 0;
+            while (i < length && chars.get(offset + i) == Character.toLowerCase(word.charAt(start + i))) i++;
+            if (i == length) return id;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the word with the given id
+     */
+    public String getWord(int id) {
+        int offset = offsets.get(id);
+        return chars.subSequence(offset, offsets.get(id + 1)).toString();
+    }
+
+    /**
+     * @return approximate number of bytes held by the table
+     */
+    public long footprintBytes() {
+        return 2L * chars.capacity() + 4L * (offsets.capacity() + hashes.capacity() + slots.capacity());
+    }
+
+    /**
+     * Same mixing as String.hashCode, followed by a spread of the high bits since the table is indexed by the low bits
+     */
+    private static int hash(CharSequence word, int start, int end, boolean toLowerCase) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            char c = word.charAt(i);
+            hash = 31 * hash + (toLowerCase ? Character.toLowerCase(c) : c);
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
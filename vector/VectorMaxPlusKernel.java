@@ -0,0 +1,68 @@
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Max-plus step over the lanes of the Vector API: each currState row of the transition matrix is added to the
+ * word's scores several nextStates at a time, and lanes that improve are blended into the scores and into a row of
+ * best currIds held as doubles, which is converted to backpointers once at the end. (Keeping everything in double
+ * lanes avoids mask conversions, which box on JDK 17.) Scores are summed in the same order as the scalar kernel,
+ * lanes only improve on a strictly greater score, and a transition scored -infinity never improves on anything, so
+ * the results are exactly those of the scalar kernel.
+ * Only compiles and loads with the jdk.incubator.vector module, so it sits in its own source root, compiled after
+ * the rest with: javac --add-modules jdk.incubator.vector -d . vector/*.java. Use MaxPlusKernel.vector() to get one.
+ */
+final class VectorMaxPlusKernel implements MaxPlusKernel {
+    private static final VectorSpecies<Double> scoreSpecies = DoubleVector.SPECIES_PREFERRED;
+
+    VectorMaxPlusKernel() {
+        if (scoreSpecies.length() < 2) throw new UnsupportedOperationException("no vectors of doubles on this platform");
+    }
+
+    @Override
+    public void step(double[] currScores, double[] transitionMatrix, double[] observationScores, int numTags,
+                     double[] rNextScores, int[] rBackpointers, int column, double[] scratch) {
+        Arrays.fill(rNextScores, 0, numTags, Double.NEGATIVE_INFINITY);
+        int vectorEnd = scoreSpecies.loopBound(numTags);
+
+        for (int currId = 0; currId < numTags; currId++) {
+            double currScore = currScores[currId];
+            if (currScore == Double.NEGATIVE_INFINITY) continue;   // state not reachable
+
+            DoubleVector curr = DoubleVector.broadcast(scoreSpecies, currScore);
+            DoubleVector id = DoubleVector.broadcast(scoreSpecies, currId);     // tag ids are exact as doubles
+            int row = currId * numTags;
+
+            int nextId = 0;
+            for (; nextId < vectorEnd; nextId += scoreSpecies.length()) {
+                DoubleVector nextScore = curr.add(DoubleVector.fromArray(scoreSpecies, transitionMatrix, row + nextId))
+                        .add(DoubleVector.fromArray(scoreSpecies, observationScores, nextId));
+                DoubleVector best = DoubleVector.fromArray(scoreSpecies, rNextScores, nextId);
+                VectorMask<Double> better = nextScore.compare(VectorOperators.GT, best);
+                best.blend(nextScore, better).intoArray(rNextScores, nextId);
+                DoubleVector.fromArray(scoreSpecies, scratch, nextId).blend(id, better).intoArray(scratch, nextId);
+            }
+
+            // the nextStates left over after the last full vector
+            for (; nextId < numTags; nextId++) {
+                double nextScore = currScore + transitionMatrix[row + nextId] + observationScores[nextId];
+                if (nextScore > rNextScores[nextId]) {
+                    rNextScores[nextId] = nextScore;
+                    scratch[nextId] = currId;
+                }
+            }
+        }
+
+        for (int nextId = 0; nextId < numTags; nextId++) {
+            rBackpointers[column + nextId] = (int) scratch[nextId];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "vector(" + scoreSpecies.length() + " x double)";
+    }
+}